@@ -47,6 +47,7 @@ android {
 }
 
 dependencies {
+    implementation(project(":streaming"))
     implementation("androidx.core:core-ktx:1.12.0")
     implementation("androidx.compose.ui:ui:1.5.0")
     implementation("androidx.compose.material3:material3:1.1.0")
@@ -64,7 +65,6 @@ dependencies {
     implementation("androidx.appcompat:appcompat:1.6.1")
     implementation("androidx.core:core-ktx:1.9.0")
     implementation("androidx.constraintlayout:constraintlayout:2.1.4")
-    implementation("org.nanohttpd:nanohttpd:2.3.1")
     implementation("androidx.activity:activity-ktx:1.8.0")
     implementation("androidx.core:core-ktx:1.9.0")
     implementation("androidx.lifecycle:lifecycle-runtime-ktx:2.8.4")
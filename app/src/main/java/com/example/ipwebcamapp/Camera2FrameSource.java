@@ -0,0 +1,282 @@
+package com.example.ipwebcamapp;
+
+import android.annotation.SuppressLint;
+import android.graphics.ImageFormat;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.*;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
+import android.media.ImageReader;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import android.view.Surface;
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link FrameSource} backed by a Camera2 device. Frames arrive through an
+ * {@link ImageReader} on the given background handler; the optional preview texture is
+ * added as a second output of the same repeating request.
+ *
+ * <p>The capture size and auto-exposure frame rate range come from a {@link CaptureProfile},
+ * see {@link #selectProfile}. {@link #reconfigure(CaptureProfile)} switches profiles by
+ * recreating only the capture session; the camera device stays open.</p>
+ *
+ * <p>Sensor timestamps are translated to the {@link System#nanoTime()} clock the pipeline
+ * measures with, so the time a frame spends in every stage can be traced back to when the
+ * sensor captured it.</p>
+ */
+public class Camera2FrameSource implements FrameSource {
+    private static final String TAG = "Camera2FrameSource";
+    /** Sensor timestamps further off than this are not trusted and replaced by the arrival time. */
+    private static final long MAX_DELIVERY_NANOS = 1_000_000_000L;
+
+    private final CameraManager manager;
+    private final String cameraId;
+    private final SurfaceTexture previewTexture;
+    private final Handler handler;
+
+    private volatile CaptureProfile profile;
+    private CameraDevice cameraDevice;
+    private CameraCaptureSession captureSession;
+    private ImageReader imageReader;
+    private Surface previewSurface;
+    /** Outputs of the previous session, released once its replacement is configured. */
+    private ImageReader retiredReader;
+    private Surface retiredPreviewSurface;
+    private FrameSink sink;
+    /** Whether sensor timestamps use the {@link SystemClock#elapsedRealtimeNanos()} base. */
+    private boolean realtimeTimestamps;
+
+    public Camera2FrameSource(CameraManager manager, String cameraId, CaptureProfile profile,
+                              SurfaceTexture previewTexture, Handler handler) {
+        this.manager = manager;
+        this.cameraId = cameraId;
+        this.profile = profile;
+        this.previewTexture = previewTexture;
+        this.handler = handler;
+    }
+
+    /**
+     * Picks the YUV capture size and AE frame rate range of {@code characteristics} for the
+     * given targets, see {@link CaptureProfile.Selector#select}.
+     *
+     * @return {@code null} if the camera reports no YUV output sizes
+     */
+    public static CaptureProfile selectProfile(CameraCharacteristics characteristics, int targetWidth,
+                                               int targetHeight, int targetFps, int targetKbps) {
+        CaptureProfile.Selector selector = new CaptureProfile.Selector();
+        StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (map != null) {
+            Size[] sizes = map.getOutputSizes(ImageFormat.YUV_420_888);
+            for (Size size : sizes == null ? new Size[0] : sizes) {
+                long minFrameDuration = map.getOutputMinFrameDuration(ImageFormat.YUV_420_888, size);
+                selector.addSize(size.getWidth(), size.getHeight(),
+                        minFrameDuration > 0 ? (int) (1_000_000_000L / minFrameDuration) : 0);
+            }
+        }
+        Range<Integer>[] ranges = characteristics.get(CameraCharacteristics.CONTROL_AE_AVAILABLE_TARGET_FPS_RANGES);
+        if (ranges != null) {
+            for (Range<Integer> range : ranges) {
+                selector.addFpsRange(range.getLower(), range.getUpper());
+            }
+        }
+        return selector.select(targetWidth, targetHeight, targetFps, targetKbps);
+    }
+
+    public CaptureProfile profile() {
+        return profile;
+    }
+
+    /**
+     * Switches to {@code profile} without reopening the camera. Frames of the new size
+     * follow as soon as the new session is configured.
+     */
+    public void reconfigure(CaptureProfile profile) {
+        handler.post(() -> {
+            this.profile = profile;
+            if (cameraDevice == null) {
+                // Not opened yet (or gone); the profile is used once it opens.
+                return;
+            }
+            Log.d(TAG, "reconfigure: Switching to " + profile);
+            if (captureSession != null) {
+                captureSession.close();
+                captureSession = null;
+            }
+            retiredReader = imageReader;
+            retiredPreviewSurface = previewSurface;
+            imageReader = null;
+            previewSurface = null;
+            startPreview();
+        });
+    }
+
+    // The caller checks the CAMERA permission before starting the source.
+    @SuppressLint("MissingPermission")
+    @Override
+    public void start(FrameSink sink) {
+        this.sink = sink;
+        try {
+            manager.openCamera(cameraId, new CameraDevice.StateCallback() {
+                @Override
+                public void onOpened(@NonNull CameraDevice camera) {
+                    Log.d(TAG, "onOpened: Camera opened");
+                    cameraDevice = camera;
+                    realtimeTimestamps = isRealtimeTimestampSource();
+                    startPreview();
+                }
+
+                @Override
+                public void onDisconnected(@NonNull CameraDevice camera) {
+                    Log.w(TAG, "onDisconnected: Camera disconnected");
+                    camera.close();
+                    cameraDevice = null;
+                }
+
+                @Override
+                public void onError(@NonNull CameraDevice camera, int error) {
+                    Log.e(TAG, "onError: Camera error " + error);
+                    camera.close();
+                    cameraDevice = null;
+                }
+            }, handler);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "start: CameraAccessException", e);
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (captureSession != null) {
+            captureSession.close();
+            captureSession = null;
+        }
+        if (cameraDevice != null) {
+            cameraDevice.close();
+            cameraDevice = null;
+            Log.d(TAG, "stop: Camera device closed");
+        }
+        if (imageReader != null) {
+            imageReader.close();
+            imageReader = null;
+        }
+        if (previewSurface != null) {
+            previewSurface.release();
+            previewSurface = null;
+        }
+        releaseRetiredOutputs();
+    }
+
+    private boolean isRealtimeTimestampSource() {
+        try {
+            Integer source = manager.getCameraCharacteristics(cameraId)
+                    .get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+            return source != null && source == CameraMetadata.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "isRealtimeTimestampSource: CameraAccessException", e);
+            return false;
+        }
+    }
+
+    private void releaseRetiredOutputs() {
+        if (retiredReader != null) {
+            retiredReader.close();
+            retiredReader = null;
+        }
+        if (retiredPreviewSurface != null) {
+            retiredPreviewSurface.release();
+            retiredPreviewSurface = null;
+        }
+    }
+
+    private void startPreview() {
+        CaptureProfile profile = this.profile;
+        Log.d(TAG, "startPreview: Starting camera preview with " + profile);
+        try {
+            CaptureRequest.Builder captureRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
+            List<Surface> outputs = new ArrayList<>();
+
+            if (previewTexture != null) {
+                previewTexture.setDefaultBufferSize(profile.width, profile.height);
+                previewSurface = new Surface(previewTexture);
+                captureRequestBuilder.addTarget(previewSurface);
+                outputs.add(previewSurface);
+            }
+
+            imageReader = ImageReader.newInstance(profile.width, profile.height, ImageFormat.YUV_420_888, 2);
+            // Only copy the planes out here so the reader is never starved; encoding happens elsewhere.
+            imageReader.setOnImageAvailableListener(reader -> {
+                Image image = reader.acquireLatestImage();
+                if (image != null) {
+                    try {
+                        sink.onFrame(toYuvFrame(image));
+                    } catch (Exception e) {
+                        Log.e(TAG, "Error processing image", e);
+                    } finally {
+                        image.close();
+                    }
+                }
+            }, handler);
+
+            Surface imageReaderSurface = imageReader.getSurface();
+            captureRequestBuilder.addTarget(imageReaderSurface);
+            outputs.add(imageReaderSurface);
+
+            // Enable auto-focus
+            captureRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
+            if (profile.maxFps > 0) {
+                captureRequestBuilder.set(CaptureRequest.CONTROL_AE_TARGET_FPS_RANGE,
+                        new Range<>(profile.minFps, profile.maxFps));
+            }
+
+            cameraDevice.createCaptureSession(outputs, new CameraCaptureSession.StateCallback() {
+                @Override
+                public void onConfigured(@NonNull CameraCaptureSession session) {
+                    Log.d(TAG, "onConfigured: Capture session configured");
+                    captureSession = session;
+                    // Creating this session closed the previous one, so its outputs are free now.
+                    releaseRetiredOutputs();
+                    try {
+                        // No per-frame capture callback: frames are traced by the pipeline instead.
+                        captureSession.setRepeatingRequest(captureRequestBuilder.build(), null, handler);
+                    } catch (CameraAccessException e) {
+                        Log.e(TAG, "onConfigured: CameraAccessException during capture session setup", e);
+                    }
+                }
+
+                @Override
+                public void onConfigureFailed(@NonNull CameraCaptureSession session) {
+                    Log.e(TAG, "onConfigureFailed: Capture session configuration failed");
+                }
+            }, handler);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "startPreview: CameraAccessException during preview setup", e);
+        }
+    }
+
+    private YuvFrame toYuvFrame(Image image) {
+        Image.Plane[] planes = image.getPlanes();
+        return new YuvFrame(image.getWidth(), image.getHeight(), captureNanos(image.getTimestamp()),
+                planes[0].getBuffer(), planes[0].getRowStride(),
+                planes[1].getBuffer(), planes[2].getBuffer(),
+                planes[1].getRowStride(), planes[1].getPixelStride());
+    }
+
+    /**
+     * Converts a sensor timestamp to the {@link System#nanoTime()} clock. Realtime-based
+     * timestamps are shifted by the time the device spent asleep; timestamps of an unknown
+     * base are used as they are if plausible, otherwise the frame's arrival time stands in.
+     */
+    private long captureNanos(long sensorTimestamp) {
+        long now = System.nanoTime();
+        long sensorNow = realtimeTimestamps ? SystemClock.elapsedRealtimeNanos() : now;
+        long delivery = sensorNow - sensorTimestamp;
+        return delivery >= 0 && delivery <= MAX_DELIVERY_NANOS ? now - delivery : now;
+    }
+}
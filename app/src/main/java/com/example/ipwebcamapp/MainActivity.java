@@ -2,18 +2,14 @@ package com.example.ipwebcamapp;
 
 import android.Manifest;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
-import android.graphics.ImageFormat;
-import android.graphics.SurfaceTexture;
-import android.graphics.YuvImage;
 import android.hardware.camera2.*;
-import android.hardware.camera2.params.StreamConfigurationMap;
-import android.media.Image;
-import android.media.ImageReader;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.util.Log;
 import android.util.Size;
-import android.view.Surface;
 import android.view.TextureView;
 import android.view.ViewGroup;
 import android.view.ViewTreeObserver;
@@ -23,21 +19,15 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
-import fi.iki.elonen.NanoHTTPD;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.PipedInputStream;
-import java.io.PipedOutputStream;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
 import java.net.SocketException;
-import java.nio.ByteBuffer;
-import java.util.Arrays;
+import java.util.ArrayList;
 import java.util.Enumeration;
-
-import static fi.iki.elonen.NanoHTTPD.newChunkedResponse;
-import static fi.iki.elonen.NanoHTTPD.newFixedLengthResponse;
+import java.util.List;
 
 public class MainActivity extends AppCompatActivity {
 
@@ -45,22 +35,57 @@ public class MainActivity extends AppCompatActivity {
     private static final int CAMERA_REQUEST_CODE = 50;
     private static final int SETTINGS_REQUEST_CODE = 100; // Unique request code for settings activity
     private static int PORT = 8080;
-    private static final String BOUNDARY = "myboundary";
+    private static final long SEGMENT_MS = 60_000;
+    private static final long RETENTION_MS = 7L * 24 * 60 * 60 * 1000;
+    private static final long MAX_RECORDING_BYTES = 1L << 30;
+    private static final int PRE_ROLL_BYTES = 96 << 20;
+    private static final int PRE_ROLL_SECONDS = 60;
+    /** Rear and front camera; phones rarely stream more than two at once. */
+    private static final int MAX_CAMERAS = 2;
+    // java.util.logging drops the streaming module's debug messages on Android.
+    private static final StreamLog.Sink LOGCAT = new StreamLog.Sink() {
+        @Override
+        public void d(String tag, String message) {
+            Log.d(tag, message);
+        }
+
+        @Override
+        public void w(String tag, String message) {
+            Log.w(tag, message);
+        }
+
+        @Override
+        public void e(String tag, String message, Throwable throwable) {
+            Log.e(tag, message, throwable);
+        }
+    };
 
     private TextureView textureView;
-    private CameraDevice cameraDevice;
-    private CameraCaptureSession captureSession;
-    private CaptureRequest.Builder captureRequestBuilder;
-    private ImageReader imageReader;
-    private NanoHTTPD server;
+    private VideoHttpServer server;
+    /** Variants of camera 0, which also feeds recording, pre-roll and motion detection. */
+    private final VariantRegistry streamVariants = new VariantRegistry();
+    private final PipelineMetrics pipelineMetrics = new PipelineMetrics();
+    private final YuvConverter yuvConverter = new YuvConverter();
+    private final EncoderStage encoderStage = new EncoderStage(new YuvImageJpegEncoder(), yuvConverter, pipelineMetrics);
+    private final MotionDetector motionDetector = new MotionDetector(SettingsActivity.DEFAULT_IDLE_FPS);
+    private final CapturePipeline capturePipeline = new CapturePipeline(yuvConverter,
+            encoderStage.addSource(streamVariants), pipelineMetrics, motionDetector);
+    private final List<CameraStream> cameras = new ArrayList<>();
+    private SegmentedRecorder recorder;
+    private PreRollBuffer preRoll;
+    private StreamLimits streamLimits = StreamLimits.NONE;
+    private int captureWidth = SettingsActivity.DEFAULT_CAPTURE_WIDTH;
+    private int captureHeight = SettingsActivity.DEFAULT_CAPTURE_HEIGHT;
+    private int captureFps = SettingsActivity.DEFAULT_CAPTURE_FPS;
+    private int captureKbps;
     private TextView ipTextView;
-    private volatile byte[] currentFrame;
 
     private Size previewSize = new Size(640, 480);  // Default value
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        StreamLog.setSink(LOGCAT);
         setContentView(R.layout.activity_main);
         Log.d(TAG, "onCreate: Activity created");
 
@@ -85,6 +110,32 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
+        setUpCameras();
+        encoderStage.start();
+
+        File recordingDir = getExternalFilesDir("recordings");
+        if (recordingDir == null) {
+            recordingDir = new File(getFilesDir(), "recordings");
+        }
+        recorder = new SegmentedRecorder(recordingDir, streamVariants, StreamVariant.DEFAULT,
+                SEGMENT_MS, RETENTION_MS, MAX_RECORDING_BYTES);
+        SharedPreferences prefs = getSharedPreferences("AppPrefs", MODE_PRIVATE);
+        motionDetector.setIdleFps(prefs.getInt(SettingsActivity.KEY_IDLE_FPS, SettingsActivity.DEFAULT_IDLE_FPS));
+        streamLimits = SettingsActivity.toLimits(prefs.getInt(SettingsActivity.KEY_MAX_STREAMS, 0),
+                prefs.getInt(SettingsActivity.KEY_MAX_CLIENT_FPS, 0),
+                prefs.getInt(SettingsActivity.KEY_CLIENT_KBPS, 0),
+                prefs.getInt(SettingsActivity.KEY_TOTAL_KBPS, 0));
+        captureWidth = prefs.getInt(SettingsActivity.KEY_CAPTURE_WIDTH, SettingsActivity.DEFAULT_CAPTURE_WIDTH);
+        captureHeight = prefs.getInt(SettingsActivity.KEY_CAPTURE_HEIGHT, SettingsActivity.DEFAULT_CAPTURE_HEIGHT);
+        captureFps = prefs.getInt(SettingsActivity.KEY_CAPTURE_FPS, SettingsActivity.DEFAULT_CAPTURE_FPS);
+        captureKbps = prefs.getInt(SettingsActivity.KEY_CAPTURE_KBPS, 0);
+        if (prefs.getBoolean(SettingsActivity.KEY_RECORD, false)) {
+            recorder.start();
+        }
+        if (prefs.getBoolean(SettingsActivity.KEY_PRE_ROLL, false)) {
+            startPreRoll();
+        }
+
         checkCameraPermission();
         Log.d(TAG, "onCreate: Checked camera permissions");
 
@@ -122,128 +173,115 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
-    private void startCamera() {
-        Log.d(TAG, "startCamera: Starting camera");
+    /**
+     * Gives every camera its own capture thread, pipeline and variants. The encoder pool and
+     * the server are shared; camera 0 keeps {@link #streamVariants} and the motion detector.
+     */
+    private void setUpCameras() {
         CameraManager manager = (CameraManager) getSystemService(CAMERA_SERVICE);
+        List<String> ids;
         try {
-            String cameraId = manager.getCameraIdList()[0];
-            Log.d(TAG, "startCamera: Camera ID " + cameraId);
-            CameraCharacteristics characteristics = manager.getCameraCharacteristics(cameraId);
-            StreamConfigurationMap map = characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-
-            if (map != null) {
-                previewSize = map.getOutputSizes(SurfaceTexture.class)[0];  // Choose a suitable size
-                Log.d(TAG, "startCamera: Preview size set to " + previewSize);
-            }
+            ids = orderedCameraIds(manager);
+        } catch (CameraAccessException e) {
+            Log.e(TAG, "setUpCameras: CameraAccessException", e);
+            return;
+        }
+        for (int i = 0; i < ids.size() && i < MAX_CAMERAS; i++) {
+            VariantRegistry variants = i == 0 ? streamVariants : new VariantRegistry();
+            CapturePipeline pipeline = i == 0 ? capturePipeline
+                    : new CapturePipeline(yuvConverter, encoderStage.addSource(variants), pipelineMetrics);
+            cameras.add(new CameraStream(ids.get(i), variants, pipeline, i));
+            Log.d(TAG, "setUpCameras: Camera " + i + " is camera ID " + ids.get(i));
+        }
+    }
 
-            if (ActivityCompat.checkSelfPermission(this, Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
-                Log.w(TAG, "startCamera: Camera permission check failed");
-                return;
+    /** The first rear camera, then the first front one, then any others in the platform's order. */
+    private static List<String> orderedCameraIds(CameraManager manager) throws CameraAccessException {
+        String[] ids = manager.getCameraIdList();
+        String back = null;
+        String front = null;
+        for (String id : ids) {
+            Integer facing = manager.getCameraCharacteristics(id).get(CameraCharacteristics.LENS_FACING);
+            if (back == null && facing != null && facing == CameraCharacteristics.LENS_FACING_BACK) {
+                back = id;
+            } else if (front == null && facing != null && facing == CameraCharacteristics.LENS_FACING_FRONT) {
+                front = id;
             }
+        }
+        List<String> ordered = new ArrayList<>();
+        if (back != null) {
+            ordered.add(back);
+        }
+        if (front != null) {
+            ordered.add(front);
+        }
+        for (String id : ids) {
+            if (!ordered.contains(id)) {
+                ordered.add(id);
+            }
+        }
+        return ordered;
+    }
 
-            manager.openCamera(cameraId, new CameraDevice.StateCallback() {
-                @Override
-                public void onOpened(@NonNull CameraDevice camera) {
-                    Log.d(TAG, "onOpened: Camera opened");
-                    cameraDevice = camera;
-                    startPreview();
-                }
-
-                @Override
-                public void onDisconnected(@NonNull CameraDevice camera) {
-                    Log.w(TAG, "onDisconnected: Camera disconnected");
-                    cameraDevice.close();
-                    cameraDevice = null;
-                }
+    /** Registries of all cameras for the server; camera 0 always exists so {@code /video} works. */
+    private List<VariantRegistry> cameraVariants() {
+        List<VariantRegistry> variants = new ArrayList<>();
+        variants.add(streamVariants);
+        for (int i = 1; i < cameras.size(); i++) {
+            variants.add(cameras.get(i).variants);
+        }
+        return variants;
+    }
 
-                @Override
-                public void onError(@NonNull CameraDevice camera, int error) {
-                    Log.e(TAG, "onError: Camera error " + error);
-                    cameraDevice.close();
-                    cameraDevice = null;
+    private void startCamera() {
+        Log.d(TAG, "startCamera: Starting cameras");
+        if (ActivityCompat.checkSelfPermission(this, Manifest.permission.CAMERA) != PackageManager.PERMISSION_GRANTED) {
+            Log.w(TAG, "startCamera: Camera permission check failed");
+            return;
+        }
+        CameraManager manager = (CameraManager) getSystemService(CAMERA_SERVICE);
+        for (int i = 0; i < cameras.size(); i++) {
+            CameraStream camera = cameras.get(i);
+            try {
+                camera.characteristics = manager.getCameraCharacteristics(camera.cameraId);
+                CaptureProfile profile = selectCaptureProfile(camera.characteristics);
+                Log.d(TAG, "startCamera: Camera " + i + " capture profile set to " + profile);
+                if (i == 0) {
+                    previewSize = new Size(profile.width, profile.height);
                 }
-            }, null);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-            Log.e(TAG, "startCamera: CameraAccessException", e);
+                // Only camera 0 is previewed. Devices that cannot run both cameras at once
+                // report an error for the second one, which then stays without frames.
+                camera.source = new Camera2FrameSource(manager, camera.cameraId, profile,
+                        i == 0 ? textureView.getSurfaceTexture() : null, camera.handler);
+                camera.source.start(camera.pipeline);
+            } catch (CameraAccessException e) {
+                e.printStackTrace();
+                Log.e(TAG, "startCamera: CameraAccessException", e);
+            }
         }
     }
 
-    private void startPreview() {
-        Log.d(TAG, "startPreview: Starting camera preview");
-        SurfaceTexture surfaceTexture = textureView.getSurfaceTexture();
-        surfaceTexture.setDefaultBufferSize(previewSize.getWidth(), previewSize.getHeight());
-        Log.d(TAG, "startPreview: SurfaceTexture buffer size set");
-
-        Surface surface = new Surface(surfaceTexture);
-        Log.d(TAG, "startPreview: Surface created");
-
-        try {
-            captureRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
-            Log.d(TAG, "startPreview: CaptureRequest.Builder created");
-
-            captureRequestBuilder.addTarget(surface);
-            Log.d(TAG, "startPreview: Target surface added to CaptureRequest");
-
-            imageReader = ImageReader.newInstance(previewSize.getWidth(), previewSize.getHeight(), ImageFormat.YUV_420_888, 2);
-            Log.d(TAG, "startPreview: ImageReader created with size " + previewSize);
-
-            imageReader.setOnImageAvailableListener(reader -> {
-                Image image = reader.acquireLatestImage();
-                if (image != null) {
-                    try {
-                        byte[] nv21 = yuv420ToNV21(image);
-                        YuvImage yuvImage = new YuvImage(nv21, ImageFormat.NV21, image.getWidth(), image.getHeight(), null);
-                        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
-                        yuvImage.compressToJpeg(new android.graphics.Rect(0, 0, image.getWidth(), image.getHeight()), 80, outputStream);
-                        byte[] jpegBytes = outputStream.toByteArray();
-                        synchronized (this) {
-                            currentFrame = jpegBytes;
-                        }
-                    } catch (Exception e) {
-                        Log.e(TAG, "Error processing image", e);
-                    } finally {
-                        image.close();
-                    }
-                }
-            }, null);
-
-            Surface imageReaderSurface = imageReader.getSurface();
-            captureRequestBuilder.addTarget(imageReaderSurface);
-            Log.d(TAG, "startPreview: ImageReader surface added to CaptureRequest");
-
-            // Enable auto-focus
-            captureRequestBuilder.set(CaptureRequest.CONTROL_AF_MODE, CaptureRequest.CONTROL_AF_MODE_CONTINUOUS_PICTURE);
-            Log.d(TAG, "startPreview: Auto-focus mode set");
-
-            cameraDevice.createCaptureSession(Arrays.asList(surface, imageReaderSurface), new CameraCaptureSession.StateCallback() {
-                @Override
-                public void onConfigured(@NonNull CameraCaptureSession session) {
-                    Log.d(TAG, "onConfigured: Capture session configured");
-                    captureSession = session;
-                    try {
-                        captureSession.setRepeatingRequest(captureRequestBuilder.build(), new CameraCaptureSession.CaptureCallback() {
-                            @Override
-                            public void onCaptureCompleted(@NonNull CameraCaptureSession session, @NonNull CaptureRequest request, @NonNull TotalCaptureResult result) {
-                                Log.d(TAG, "onCaptureCompleted: Capture completed");
-                                super.onCaptureCompleted(session, request, result);
-                            }
-                        }, null);
-                    } catch (CameraAccessException e) {
-                        e.printStackTrace();
-                        Log.e(TAG, "onConfigured: CameraAccessException during capture session setup", e);
-                    }
-                }
+    /** Profile for the configured capture targets, or the default preview size if the camera reports no sizes. */
+    private CaptureProfile selectCaptureProfile(CameraCharacteristics characteristics) {
+        CaptureProfile profile = Camera2FrameSource.selectProfile(characteristics,
+                captureWidth, captureHeight, captureFps, captureKbps);
+        if (profile == null) {
+            Log.w(TAG, "selectCaptureProfile: No YUV sizes reported, using " + previewSize);
+            profile = new CaptureProfile(previewSize.getWidth(), previewSize.getHeight(), 0, 0);
+        }
+        return profile;
+    }
 
-                @Override
-                public void onConfigureFailed(@NonNull CameraCaptureSession session) {
-                    Log.e(TAG, "onConfigureFailed: Capture session configuration failed");
-                }
-            }, null);
-        } catch (CameraAccessException e) {
-            e.printStackTrace();
-            Log.e(TAG, "startPreview: CameraAccessException during preview setup", e);
+    /** The arena is only allocated once pre-roll is first enabled. */
+    private void startPreRoll() {
+        if (preRoll == null) {
+            preRoll = new PreRollBuffer(streamVariants, StreamVariant.DEFAULT, PRE_ROLL_BYTES, PRE_ROLL_SECONDS);
+            if (server != null) {
+                // Handed to the running server so connected viewers stay connected.
+                server.setPreRoll(preRoll);
+            }
         }
+        preRoll.start();
     }
 
     private void adjustTextureViewSize() {
@@ -258,77 +296,18 @@ public class MainActivity extends AppCompatActivity {
     private void startServer(int port) {
         if (server != null) {
             server.stop();
-            Log.d(TAG, "startServer: NanoHTTPD server stopped");
+            Log.d(TAG, "startServer: Video server stopped");
         }
 
-        server = new NanoHTTPD(port) {
-            @Override
-            public Response serve(IHTTPSession session) {
-                Log.d(TAG, "serve: Received request with URI " + session.getUri());
-                if ("/video".equals(session.getUri())) {
-                    return streamVideo();  // Call once per request
-                } else {
-                    String response = "IP Webcam Running!";
-                    return newFixedLengthResponse(response);
-                }
-            }
-        };
-
+        server = new VideoHttpServer(port, cameraVariants(), pipelineMetrics, recorder, preRoll,
+                motionDetector);
+        server.setLimits(streamLimits);
         try {
             server.start();
-            Log.d(TAG, "startServer: NanoHTTPD server started on port " + port);
+            Log.d(TAG, "startServer: Video server started on port " + port);
         } catch (IOException e) {
             e.printStackTrace();
-            Log.e(TAG, "startServer: Failed to start NanoHTTPD server", e);
-        }
-    }
-
-    private NanoHTTPD.Response streamVideo() {
-        Log.d(TAG, "streamVideo: Streaming video");
-        try {
-            PipedOutputStream outputStream = new PipedOutputStream();
-            PipedInputStream inputStream = new PipedInputStream(outputStream);
-
-            // Start a new thread to continuously write video frames to the output stream
-            new Thread(() -> {
-                try {
-                    while (true) {
-                        byte[] frame;
-                        synchronized (this) {
-                            frame = currentFrame;
-                        }
-                        if (frame != null) {
-                            outputStream.write(("--" + BOUNDARY + "\r\n").getBytes());
-                            outputStream.write("Content-Type: image/jpeg\r\n".getBytes());
-                            outputStream.write(("Content-Length: " + frame.length + "\r\n").getBytes());
-                            outputStream.write("\r\n".getBytes());
-                            outputStream.write(frame);
-                            outputStream.write("\r\n".getBytes());
-                            outputStream.flush();
-                            Log.d(TAG, "streamVideo: Frame written to output stream");
-                        }
-                        Thread.sleep(16);  // Control frame rate
-                    }
-                } catch (IOException | InterruptedException e) {
-
-                    e.printStackTrace();
-                    Log.e(TAG, "streamVideo: Exception in video streaming thread", e);
-                } finally {
-                    try {
-                        outputStream.close();
-                        Log.d(TAG, "streamVideo: Output stream closed");
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                        Log.e(TAG, "streamVideo: IOException when closing output stream", e);
-                    }
-                }
-            }).start();
-
-            return newChunkedResponse(NanoHTTPD.Response.Status.OK, "multipart/x-mixed-replace; boundary=" + BOUNDARY, inputStream);
-        } catch (IOException e) {
-            e.printStackTrace();
-            Log.e(TAG, "streamVideo: IOException in streamVideo", e);
-            return newFixedLengthResponse(NanoHTTPD.Response.Status.INTERNAL_ERROR, "text/plain", "Error streaming video");
+            Log.e(TAG, "startServer: Failed to start video server", e);
         }
     }
 
@@ -340,6 +319,9 @@ public class MainActivity extends AppCompatActivity {
             Log.w(TAG, "displayIpAddress: IP address is unknown");
         }
         String link = "http://" + ipAddress + ":" + PORT + "/video";
+        if (cameras.size() > 1) {
+            link += " (second camera: /video/1)";
+        }
         ipTextView.setText("Connect to: " + link);
         Log.d(TAG, "displayIpAddress: IP address displayed as " + link);
     }
@@ -369,21 +351,73 @@ public class MainActivity extends AppCompatActivity {
     protected void onDestroy() {
         super.onDestroy();
         Log.d(TAG, "onDestroy: Destroying activity");
-        if (cameraDevice != null) {
-            cameraDevice.close();
-            cameraDevice = null;
-            Log.d(TAG, "onDestroy: Camera device closed");
+        for (CameraStream camera : cameras) {
+            if (camera.source != null) {
+                camera.source.stop();
+                camera.source = null;
+                Log.d(TAG, "onDestroy: Frame source of camera " + camera.cameraId + " stopped");
+            }
         }
         if (server != null) {
             server.stop();
-            Log.d(TAG, "onDestroy: NanoHTTPD server stopped");
+            server = null;
+            Log.d(TAG, "onDestroy: Video server stopped");
+        }
+        recorder.stop();
+        if (preRoll != null) {
+            preRoll.stop();
         }
+        encoderStage.stop();
+        for (CameraStream camera : cameras) {
+            camera.thread.quitSafely();
+        }
+        cameras.clear();
     }
 
     @Override
     protected void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
         if (requestCode == SETTINGS_REQUEST_CODE && resultCode == RESULT_OK) {
+            motionDetector.setIdleFps(data.getIntExtra(SettingsActivity.KEY_IDLE_FPS,
+                    SettingsActivity.DEFAULT_IDLE_FPS));
+            // Limits apply to the running server, so connected viewers are not cut off.
+            streamLimits = SettingsActivity.toLimits(data.getIntExtra(SettingsActivity.KEY_MAX_STREAMS, 0),
+                    data.getIntExtra(SettingsActivity.KEY_MAX_CLIENT_FPS, 0),
+                    data.getIntExtra(SettingsActivity.KEY_CLIENT_KBPS, 0),
+                    data.getIntExtra(SettingsActivity.KEY_TOTAL_KBPS, 0));
+            if (server != null) {
+                server.setLimits(streamLimits);
+            }
+            captureWidth = data.getIntExtra(SettingsActivity.KEY_CAPTURE_WIDTH, captureWidth);
+            captureHeight = data.getIntExtra(SettingsActivity.KEY_CAPTURE_HEIGHT, captureHeight);
+            captureFps = data.getIntExtra(SettingsActivity.KEY_CAPTURE_FPS, captureFps);
+            captureKbps = data.getIntExtra(SettingsActivity.KEY_CAPTURE_KBPS, captureKbps);
+            for (int i = 0; i < cameras.size(); i++) {
+                CameraStream camera = cameras.get(i);
+                if (camera.source == null || camera.characteristics == null) {
+                    continue;
+                }
+                CaptureProfile profile = selectCaptureProfile(camera.characteristics);
+                if (!profile.equals(camera.source.profile())) {
+                    // Only the capture session is rebuilt; viewers stay connected.
+                    camera.source.reconfigure(profile);
+                    if (i == 0) {
+                        previewSize = new Size(profile.width, profile.height);
+                        adjustTextureViewSize();
+                    }
+                }
+            }
+            boolean record = data.getBooleanExtra(SettingsActivity.KEY_RECORD, false);
+            if (record && !recorder.isRecording()) {
+                recorder.start();
+            } else if (!record && recorder.isRecording()) {
+                recorder.stop();
+            }
+            if (data.getBooleanExtra(SettingsActivity.KEY_PRE_ROLL, false)) {
+                startPreRoll();
+            } else if (preRoll != null) {
+                preRoll.stop();
+            }
             int newPort = data.getIntExtra("port", PORT);
             if (newPort != PORT) {
                 PORT = newPort;
@@ -393,43 +427,24 @@ public class MainActivity extends AppCompatActivity {
             }
         }
     }
-    private byte[] yuv420ToNV21(Image image) {
-        int width = image.getWidth();
-        int height = image.getHeight();
-
-        ByteBuffer yBuffer = image.getPlanes()[0].getBuffer();
-        ByteBuffer uBuffer = image.getPlanes()[1].getBuffer();
-        ByteBuffer vBuffer = image.getPlanes()[2].getBuffer();
-
-        int yRowStride = image.getPlanes()[0].getRowStride();
-        int uvRowStride = image.getPlanes()[1].getRowStride();
-        int uvPixelStride = image.getPlanes()[1].getPixelStride();
-
-        byte[] nv21 = new byte[width * height * 3 / 2];
-
-        // Copy Y plane
-        int pos = 0;
-        for (int row = 0; row < height; row++) {
-            int yRowStart = row * yRowStride;
-            yBuffer.position(yRowStart);
-            yBuffer.get(nv21, pos, width);
-            pos += width;
-        }
 
-        // Interleave VU (not UV) for NV21
-        int chromaHeight = height / 2;
-        int chromaWidth = width / 2;
-        for (int row = 0; row < chromaHeight; row++) {
-            int uvRowStart = row * uvRowStride;
-            for (int col = 0; col < chromaWidth; col++) {
-                int index = uvRowStart + col * uvPixelStride;
-                vBuffer.position(index);
-                uBuffer.position(index);
-                nv21[pos++] = vBuffer.get(); // V
-                nv21[pos++] = uBuffer.get(); // U
-            }
+    /** One camera: its own capture thread and pipeline; the encoder pool and server are shared. */
+    private static final class CameraStream {
+        final String cameraId;
+        final VariantRegistry variants;
+        final CapturePipeline pipeline;
+        final HandlerThread thread;
+        final Handler handler;
+        CameraCharacteristics characteristics;
+        Camera2FrameSource source;
+
+        CameraStream(String cameraId, VariantRegistry variants, CapturePipeline pipeline, int index) {
+            this.cameraId = cameraId;
+            this.variants = variants;
+            this.pipeline = pipeline;
+            this.thread = new HandlerThread("CameraBackground" + index);
+            thread.start();
+            this.handler = new Handler(thread.getLooper());
         }
-
-        return nv21;
     }
-}
\ No newline at end of file
+}
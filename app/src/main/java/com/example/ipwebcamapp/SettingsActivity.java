@@ -5,16 +5,44 @@ import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.view.View;
 import android.widget.Button;
+import android.widget.CheckBox;
 import android.widget.EditText;
 import androidx.appcompat.app.AppCompatActivity;
 
+import java.util.Locale;
+
 public class SettingsActivity extends AppCompatActivity {
 
     private EditText portEditText;
+    private EditText maxStreamsEditText;
+    private EditText maxClientFpsEditText;
+    private EditText clientKbpsEditText;
+    private EditText totalKbpsEditText;
+    private EditText captureSizeEditText;
+    private EditText captureFpsEditText;
+    private EditText captureKbpsEditText;
+    private EditText idleFpsEditText;
+    private CheckBox recordCheckBox;
+    private CheckBox preRollCheckBox;
     private Button saveButton;
     private SharedPreferences sharedPreferences;
     private static final String PREFS_NAME = "AppPrefs";
     private static final String KEY_PORT = "port";
+    static final String KEY_RECORD = "record";
+    static final String KEY_PRE_ROLL = "preRoll";
+    static final String KEY_IDLE_FPS = "idleFps";
+    static final int DEFAULT_IDLE_FPS = 1;
+    static final String KEY_MAX_STREAMS = "maxStreams";
+    static final String KEY_MAX_CLIENT_FPS = "maxClientFps";
+    static final String KEY_CLIENT_KBPS = "clientKbps";
+    static final String KEY_TOTAL_KBPS = "totalKbps";
+    static final String KEY_CAPTURE_WIDTH = "captureWidth";
+    static final String KEY_CAPTURE_HEIGHT = "captureHeight";
+    static final String KEY_CAPTURE_FPS = "captureFps";
+    static final String KEY_CAPTURE_KBPS = "captureKbps";
+    static final int DEFAULT_CAPTURE_WIDTH = 1280;
+    static final int DEFAULT_CAPTURE_HEIGHT = 720;
+    static final int DEFAULT_CAPTURE_FPS = 30;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -22,12 +50,33 @@ public class SettingsActivity extends AppCompatActivity {
         setContentView(R.layout.activity_settings);
 
         portEditText = findViewById(R.id.portEditText);
+        maxStreamsEditText = findViewById(R.id.maxStreamsEditText);
+        maxClientFpsEditText = findViewById(R.id.maxClientFpsEditText);
+        clientKbpsEditText = findViewById(R.id.clientKbpsEditText);
+        totalKbpsEditText = findViewById(R.id.totalKbpsEditText);
+        captureSizeEditText = findViewById(R.id.captureSizeEditText);
+        captureFpsEditText = findViewById(R.id.captureFpsEditText);
+        captureKbpsEditText = findViewById(R.id.captureKbpsEditText);
+        idleFpsEditText = findViewById(R.id.idleFpsEditText);
+        recordCheckBox = findViewById(R.id.recordCheckBox);
+        preRollCheckBox = findViewById(R.id.preRollCheckBox);
         saveButton = findViewById(R.id.saveButton);
         sharedPreferences = getSharedPreferences(PREFS_NAME, MODE_PRIVATE);
 
         // Load saved port number
         int savedPort = sharedPreferences.getInt(KEY_PORT, 8080);
         portEditText.setText(String.valueOf(savedPort));
+        maxStreamsEditText.setText(String.valueOf(sharedPreferences.getInt(KEY_MAX_STREAMS, 0)));
+        maxClientFpsEditText.setText(String.valueOf(sharedPreferences.getInt(KEY_MAX_CLIENT_FPS, 0)));
+        clientKbpsEditText.setText(String.valueOf(sharedPreferences.getInt(KEY_CLIENT_KBPS, 0)));
+        totalKbpsEditText.setText(String.valueOf(sharedPreferences.getInt(KEY_TOTAL_KBPS, 0)));
+        captureSizeEditText.setText(sharedPreferences.getInt(KEY_CAPTURE_WIDTH, DEFAULT_CAPTURE_WIDTH) + "x"
+                + sharedPreferences.getInt(KEY_CAPTURE_HEIGHT, DEFAULT_CAPTURE_HEIGHT));
+        captureFpsEditText.setText(String.valueOf(sharedPreferences.getInt(KEY_CAPTURE_FPS, DEFAULT_CAPTURE_FPS)));
+        captureKbpsEditText.setText(String.valueOf(sharedPreferences.getInt(KEY_CAPTURE_KBPS, 0)));
+        idleFpsEditText.setText(String.valueOf(sharedPreferences.getInt(KEY_IDLE_FPS, DEFAULT_IDLE_FPS)));
+        recordCheckBox.setChecked(sharedPreferences.getBoolean(KEY_RECORD, false));
+        preRollCheckBox.setChecked(sharedPreferences.getBoolean(KEY_PRE_ROLL, false));
 
         saveButton.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -40,17 +89,101 @@ public class SettingsActivity extends AppCompatActivity {
     private void savePortNumber() {
         try {
             int portNumber = Integer.parseInt(portEditText.getText().toString());
+            int idleFps;
+            try {
+                idleFps = Integer.parseInt(idleFpsEditText.getText().toString());
+            } catch (NumberFormatException e) {
+                idleFpsEditText.setError("Invalid frame rate");
+                return;
+            }
+            int maxStreams = parseLimit(maxStreamsEditText);
+            int maxClientFps = parseLimit(maxClientFpsEditText);
+            int clientKbps = parseLimit(clientKbpsEditText);
+            int totalKbps = parseLimit(totalKbpsEditText);
+            int captureFps = parseLimit(captureFpsEditText);
+            int captureKbps = parseLimit(captureKbpsEditText);
+            int[] captureSize = parseSize(captureSizeEditText);
+            if (maxStreams < 0 || maxClientFps < 0 || clientKbps < 0 || totalKbps < 0
+                    || captureFps < 0 || captureKbps < 0 || captureSize == null) {
+                return;
+            }
             SharedPreferences.Editor editor = sharedPreferences.edit();
             editor.putInt(KEY_PORT, portNumber);
+            editor.putInt(KEY_MAX_STREAMS, maxStreams);
+            editor.putInt(KEY_MAX_CLIENT_FPS, maxClientFps);
+            editor.putInt(KEY_CLIENT_KBPS, clientKbps);
+            editor.putInt(KEY_TOTAL_KBPS, totalKbps);
+            editor.putInt(KEY_CAPTURE_WIDTH, captureSize[0]);
+            editor.putInt(KEY_CAPTURE_HEIGHT, captureSize[1]);
+            editor.putInt(KEY_CAPTURE_FPS, captureFps);
+            editor.putInt(KEY_CAPTURE_KBPS, captureKbps);
+            editor.putInt(KEY_IDLE_FPS, idleFps);
+            editor.putBoolean(KEY_RECORD, recordCheckBox.isChecked());
+            editor.putBoolean(KEY_PRE_ROLL, preRollCheckBox.isChecked());
             editor.apply();
 
             // Return the result to MainActivity
             Intent resultIntent = new Intent();
             resultIntent.putExtra("port", portNumber);
+            resultIntent.putExtra(KEY_MAX_STREAMS, maxStreams);
+            resultIntent.putExtra(KEY_MAX_CLIENT_FPS, maxClientFps);
+            resultIntent.putExtra(KEY_CLIENT_KBPS, clientKbps);
+            resultIntent.putExtra(KEY_TOTAL_KBPS, totalKbps);
+            resultIntent.putExtra(KEY_CAPTURE_WIDTH, captureSize[0]);
+            resultIntent.putExtra(KEY_CAPTURE_HEIGHT, captureSize[1]);
+            resultIntent.putExtra(KEY_CAPTURE_FPS, captureFps);
+            resultIntent.putExtra(KEY_CAPTURE_KBPS, captureKbps);
+            resultIntent.putExtra(KEY_IDLE_FPS, idleFps);
+            resultIntent.putExtra(KEY_RECORD, recordCheckBox.isChecked());
+            resultIntent.putExtra(KEY_PRE_ROLL, preRollCheckBox.isChecked());
             setResult(RESULT_OK, resultIntent);
             finish(); // Close the activity
         } catch (NumberFormatException e) {
             portEditText.setError("Invalid port number");
         }
     }
+
+    /** An empty field means no limit; returns -1 and flags the field if it is not a number. */
+    private static int parseLimit(EditText field) {
+        String text = field.getText().toString().trim();
+        if (text.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(text));
+        } catch (NumberFormatException e) {
+            field.setError("Invalid limit");
+            return -1;
+        }
+    }
+
+    /**
+     * Parses {@code WIDTHxHEIGHT}; an empty field means no target resolution ({@code 0x0}).
+     * Returns {@code null} and flags the field if it cannot be parsed.
+     */
+    private static int[] parseSize(EditText field) {
+        String text = field.getText().toString().trim();
+        if (text.isEmpty()) {
+            return new int[]{0, 0};
+        }
+        int x = text.toLowerCase(Locale.ROOT).indexOf('x');
+        try {
+            if (x > 0) {
+                int width = Integer.parseInt(text.substring(0, x).trim());
+                int height = Integer.parseInt(text.substring(x + 1).trim());
+                if (width >= 0 && height >= 0) {
+                    return new int[]{width, height};
+                }
+            }
+        } catch (NumberFormatException e) {
+            // Flagged below.
+        }
+        field.setError("Expected a size like 1280x720");
+        return null;
+    }
+
+    /** Builds the server limits from the saved (or returned) values; sizes are in KB/s. */
+    static StreamLimits toLimits(int maxStreams, int maxClientFps, int clientKbps, int totalKbps) {
+        return new StreamLimits(maxStreams, maxClientFps, clientKbps * 1024L, totalKbps * 1024L);
+    }
 }
@@ -0,0 +1,15 @@
+package com.example.ipwebcamapp;
+
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.graphics.YuvImage;
+
+/** {@link JpegEncoder} backed by the platform's {@link YuvImage#compressToJpeg}. */
+public class YuvImageJpegEncoder implements JpegEncoder {
+
+    @Override
+    public void encode(Nv21Frame frame, int quality, JpegOutputStream out) {
+        YuvImage yuvImage = new YuvImage(frame.data, ImageFormat.NV21, frame.width, frame.height, null);
+        yuvImage.compressToJpeg(new Rect(0, 0, frame.width, frame.height), quality, out);
+    }
+}
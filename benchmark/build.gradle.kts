@@ -0,0 +1,25 @@
+plugins {
+    id("java")
+    id("me.champeau.jmh") version "0.7.2"
+}
+
+// JVM-only JMH benchmarks for the streaming hot paths. Run with:
+//   ./gradlew :benchmark:jmh
+// Results (including the gc profiler's allocation rates) end up in build/results/jmh.
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+dependencies {
+    implementation(project(":streaming"))
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    profilers.add("gc")
+    resultFormat.set("TEXT")
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+}
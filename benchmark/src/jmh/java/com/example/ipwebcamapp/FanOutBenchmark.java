@@ -0,0 +1,55 @@
+package com.example.ipwebcamapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishing one frame and pushing it through the per-client write path for 1, 10 and 100
+ * simulated clients that never apply backpressure. With the gc profiler this shows how
+ * allocation per frame scales with the number of viewers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FanOutBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int clients;
+
+    @Param({"60000"})
+    public int jpegSize;
+
+    private final FramePublisher publisher = new FramePublisher();
+    private StreamClient[] streamClients;
+    private byte[] jpeg;
+
+    @Setup
+    public void setUp() {
+        jpeg = new byte[jpegSize];
+        streamClients = new StreamClient[clients];
+        for (int i = 0; i < clients; i++) {
+            streamClients[i] = new StreamClient(new NullChannel());
+        }
+    }
+
+    @Benchmark
+    public long fanOut() throws IOException {
+        MjpegFrame frame = publisher.publish(jpeg);
+        long sent = 0;
+        for (StreamClient client : streamClients) {
+            client.offerFrame(frame);
+            client.write();
+            sent += client.framesSent();
+        }
+        return sent;
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.ipwebcamapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of framing and writing one multipart part. {@link #legacyStringFraming()} mirrors the
+ * original writer, paid for every client and frame: string concatenation, {@code getBytes()}
+ * and five separate writes. The shared path is split into {@link #buildSharedFrame()}, paid
+ * once per captured frame, and {@link #writeSharedFrame()}, the per-client gathering write.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MultipartFramingBenchmark {
+    private static final String BOUNDARY = "myboundary";
+
+    @Param({"30000", "120000"})
+    public int jpegSize;
+
+    private byte[] jpeg;
+    private final NullChannel channel = new NullChannel();
+    private final ByteBuffer[] views = new ByteBuffer[3];
+    private final OutputStream sink = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+    private long sequence;
+    private MjpegFrame prebuilt;
+
+    @Setup
+    public void setUp() {
+        jpeg = new byte[jpegSize];
+        prebuilt = MjpegFrame.fromJpeg(0, jpeg);
+    }
+
+    @Benchmark
+    public OutputStream legacyStringFraming() throws IOException {
+        sink.write(("--" + BOUNDARY + "\r\n").getBytes());
+        sink.write("Content-Type: image/jpeg\r\n".getBytes());
+        sink.write(("Content-Length: " + jpeg.length + "\r\n").getBytes());
+        sink.write("\r\n".getBytes());
+        sink.write(jpeg);
+        sink.write("\r\n".getBytes());
+        sink.flush();
+        return sink;
+    }
+
+    @Benchmark
+    public MjpegFrame buildSharedFrame() {
+        return MjpegFrame.fromJpeg(++sequence, jpeg);
+    }
+
+    @Benchmark
+    public long writeSharedFrame() {
+        prebuilt.writeViews(views);
+        return channel.write(views);
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.ipwebcamapp;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+
+/** Channel that accepts every byte immediately, standing in for a fast client socket. */
+final class NullChannel implements GatheringByteChannel {
+    long bytesWritten;
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) {
+        long written = 0;
+        for (int i = offset; i < offset + length; i++) {
+            written += srcs[i].remaining();
+            srcs[i].position(srcs[i].limit());
+        }
+        bytesWritten += written;
+        return written;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) {
+        return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public int write(ByteBuffer src) {
+        int written = src.remaining();
+        src.position(src.limit());
+        bytesWritten += written;
+        return written;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return true;
+    }
+
+    @Override
+    public void close() {
+    }
+}
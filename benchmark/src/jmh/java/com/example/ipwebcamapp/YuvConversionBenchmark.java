@@ -0,0 +1,127 @@
+package com.example.ipwebcamapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * YUV_420_888 to NV21 conversion at common capture sizes, for the semi-planar layout most
+ * HALs deliver and the fully planar fallback, with and without row padding.
+ * {@link #legacyPerByte()} is the original per-byte implementation, kept as a baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class YuvConversionBenchmark {
+
+    @Param({"480p", "720p", "1080p"})
+    public String resolution;
+
+    @Param({"semiPlanar", "planar"})
+    public String layout;
+
+    /** Extra bytes at the end of every luma row, as added by HALs that align strides. */
+    @Param({"0", "128"})
+    public int rowPadding;
+
+    private final YuvConverter converter = new YuvConverter();
+    private int width;
+    private int height;
+    private ByteBuffer yPlane;
+    private ByteBuffer uPlane;
+    private ByteBuffer vPlane;
+    private int yRowStride;
+    private int uvRowStride;
+    private int uvPixelStride;
+
+    @Setup
+    public void setUp() {
+        switch (resolution) {
+            case "480p":
+                width = 640;
+                height = 480;
+                break;
+            case "720p":
+                width = 1280;
+                height = 720;
+                break;
+            default:
+                width = 1920;
+                height = 1080;
+                break;
+        }
+        Random random = new Random(42);
+        yRowStride = width + rowPadding;
+        yPlane = randomDirect(random, yRowStride * (height - 1) + width);
+
+        if ("semiPlanar".equals(layout)) {
+            uvRowStride = yRowStride;
+            uvPixelStride = 2;
+            ByteBuffer chroma = randomDirect(random, uvRowStride * (height / 2 - 1) + width);
+            ByteBuffer v = chroma.duplicate();
+            v.limit(chroma.capacity() - 1);
+            vPlane = v.slice();
+            ByteBuffer u = chroma.duplicate();
+            u.position(1);
+            uPlane = u.slice();
+        } else {
+            uvRowStride = yRowStride / 2;
+            uvPixelStride = 1;
+            int size = uvRowStride * (height / 2 - 1) + width / 2;
+            uPlane = randomDirect(random, size);
+            vPlane = randomDirect(random, size);
+        }
+    }
+
+    @Benchmark
+    public byte[] pooledConverter() {
+        byte[] nv21 = converter.toNv21(width, height, yPlane, yRowStride,
+                uPlane, vPlane, uvRowStride, uvPixelStride);
+        converter.release(nv21);
+        return nv21;
+    }
+
+    @Benchmark
+    public byte[] legacyPerByte() {
+        ByteBuffer yBuffer = yPlane.duplicate();
+        ByteBuffer uBuffer = uPlane.duplicate();
+        ByteBuffer vBuffer = vPlane.duplicate();
+        byte[] nv21 = new byte[width * height * 3 / 2];
+
+        int pos = 0;
+        for (int row = 0; row < height; row++) {
+            yBuffer.position(row * yRowStride);
+            yBuffer.get(nv21, pos, width);
+            pos += width;
+        }
+        for (int row = 0; row < height / 2; row++) {
+            int uvRowStart = row * uvRowStride;
+            for (int col = 0; col < width / 2; col++) {
+                int index = uvRowStart + col * uvPixelStride;
+                vBuffer.position(index);
+                uBuffer.position(index);
+                nv21[pos++] = vBuffer.get();
+                nv21[pos++] = uBuffer.get();
+            }
+        }
+        return nv21;
+    }
+
+    private static ByteBuffer randomDirect(Random random, int size) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer;
+    }
+}
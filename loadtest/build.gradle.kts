@@ -0,0 +1,19 @@
+plugins {
+    id("application")
+}
+
+// JVM load generator and soak test for the MJPEG server. Run with:
+//   ./gradlew :loadtest:run --args="--clients=50 --slow=10 --churn=10 --duration=60"
+// Add --target=<phone-ip>:8080 to load a device instead of the in-process server.
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+dependencies {
+    implementation(project(":streaming"))
+}
+
+application {
+    mainClass.set("com.example.ipwebcamapp.LoadGenerator")
+}
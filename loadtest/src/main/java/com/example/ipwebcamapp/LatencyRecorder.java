@@ -0,0 +1,47 @@
+package com.example.ipwebcamapp;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Millisecond histogram shared by all simulated viewers, read out as percentiles once per
+ * reporting window. Values beyond {@link #MAX_MS} land in the last bucket.
+ */
+final class LatencyRecorder {
+    static final int MAX_MS = 10_000;
+
+    private final AtomicLongArray counts = new AtomicLongArray(MAX_MS + 1);
+
+    void record(long ms) {
+        counts.incrementAndGet((int) Math.max(0, Math.min(MAX_MS, ms)));
+    }
+
+    /**
+     * Returns the given percentiles (0-100) of everything recorded since the last call and
+     * starts over.
+     *
+     * @return one value per percentile, {@code -1} each if nothing was recorded
+     */
+    long[] takePercentiles(double... percentiles) {
+        long[] snapshot = new long[counts.length()];
+        long total = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = counts.getAndSet(i, 0);
+            total += snapshot[i];
+        }
+        long[] result = new long[percentiles.length];
+        for (int p = 0; p < percentiles.length; p++) {
+            if (total == 0) {
+                result[p] = -1;
+                continue;
+            }
+            long rank = (long) Math.ceil(percentiles[p] / 100 * total);
+            long seen = 0;
+            int ms = 0;
+            while (ms < snapshot.length - 1 && (seen += snapshot[ms]) < rank) {
+                ms++;
+            }
+            result[p] = ms;
+        }
+        return result;
+    }
+}
@@ -0,0 +1,375 @@
+package com.example.ipwebcamapp;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Command-line load generator and soak test for {@link VideoHttpServer}.
+ *
+ * <p>Opens many concurrent {@code /video} connections, a mix of normal, slow and churning
+ * {@link MjpegClient viewers}, optionally drops all of them at once at regular intervals,
+ * and prints per-window frame rates, jitter and latency percentiles plus the server's
+ * stream, thread, heap and file descriptor counts. Without {@code --target} it starts an
+ * in-process server fed by a {@link SyntheticFrameSource} and a stand-in encoder, so the
+ * server's own resources can be watched; with {@code --target=host:port} it loads a
+ * device and only the stream count from {@code /metrics} is available.</p>
+ *
+ * <p>{@code --soak} turns the run into a leak check: once the viewers are gone and a
+ * settle time has passed, the server must report no streams, and an in-process server must
+ * be back to its thread and file descriptor counts from before the load, with the heap
+ * grown by less than {@code --max-heap-growth-mb}. A violation is printed and makes the
+ * process exit with status 1. Run {@code --help} for all options.</p>
+ */
+public final class LoadGenerator {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final String CLIENT_THREAD_PREFIX = "LoadClient-";
+    private static final int FD_TOLERANCE = 2;
+
+    private static final String USAGE = "Options (all --name=value):\n"
+            + "  --target=host:port   server to load; default is an in-process server\n"
+            + "  --port=18080         port of the in-process server\n"
+            + "  --path=/video        stream path including query, e.g. /video?width=640\n"
+            + "  --clients=20         normal viewers\n"
+            + "  --slow=5             viewers that read at --slow-kbps\n"
+            + "  --slow-kbps=50       read rate of slow viewers in KB/s\n"
+            + "  --churn=5            viewers that reconnect after about --churn-ms\n"
+            + "  --churn-ms=3000      mean connection lifetime of churning viewers\n"
+            + "  --storm-every=0      drop every connection at once every N seconds, 0 for never\n"
+            + "  --duration=60        seconds to run (600 with --soak)\n"
+            + "  --interval=5         seconds between reports\n"
+            + "  --per-client         print every viewer's window in each report\n"
+            + "  --soak               check for leaked streams, threads, sockets and heap at the end\n"
+            + "  --settle=5           seconds to wait after the load before the leak check\n"
+            + "  --max-heap-growth-mb=32\n"
+            + "  --width=1280 --height=720 --fps=30 --frame-kb=60   in-process source\n";
+
+    private final Map<String, String> options;
+    private final LatencyRecorder latencies = new LatencyRecorder();
+    private final List<MjpegClient> clients = new ArrayList<>();
+    private final List<Thread> clientThreads = new ArrayList<>();
+    private String host;
+    private int port;
+    private VideoHttpServer server;
+    private EncoderStage encoder;
+    private FrameSource source;
+
+    private LoadGenerator(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        if (options.containsKey("help")) {
+            System.out.print(USAGE);
+            return;
+        }
+        boolean clean = new LoadGenerator(options).run();
+        System.exit(clean ? 0 : 1);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + arg + "\n" + USAGE);
+            }
+            int eq = arg.indexOf('=');
+            options.put(eq < 0 ? arg.substring(2) : arg.substring(2, eq), eq < 0 ? "" : arg.substring(eq + 1));
+        }
+        return options;
+    }
+
+    private int intOption(String name, int defaultValue) {
+        String value = options.get(name);
+        return value == null || value.isEmpty() ? defaultValue : Integer.parseInt(value);
+    }
+
+    /** @return {@code false} if the soak check found a leak */
+    private boolean run() throws Exception {
+        boolean soak = options.containsKey("soak");
+        String target = options.get("target");
+        if (target != null) {
+            int colon = target.lastIndexOf(':');
+            host = colon < 0 ? target : target.substring(0, colon);
+            port = colon < 0 ? 8080 : Integer.parseInt(target.substring(colon + 1));
+        } else {
+            host = "127.0.0.1";
+            port = intOption("port", 18080);
+            startServer();
+        }
+
+        ServerStats baseline = ServerStats.sample(this, true);
+        System.out.println("Baseline: " + baseline);
+        startClients();
+
+        long durationMs = intOption("duration", soak ? 600 : 60) * 1000L;
+        long intervalMs = intOption("interval", 5) * 1000L;
+        long stormMs = intOption("storm-every", 0) * 1000L;
+        long start = System.currentTimeMillis();
+        long nextReport = start + intervalMs;
+        long nextStorm = stormMs > 0 ? start + stormMs : Long.MAX_VALUE;
+        long lastReport = start;
+        long lastConnects = 0;
+        long lastErrors = 0;
+        int peakServerThreads = baseline.threads;
+        while (System.currentTimeMillis() - start < durationMs) {
+            long now = System.currentTimeMillis();
+            long sleep = Math.min(nextReport, nextStorm) - now;
+            if (sleep > 0) {
+                Thread.sleep(Math.min(sleep, start + durationMs - now));
+                continue;
+            }
+            if (now >= nextStorm) {
+                System.out.println("Reconnect storm: dropping " + clients.size() + " connections");
+                for (MjpegClient client : clients) {
+                    client.disconnect();
+                }
+                nextStorm += stormMs;
+            }
+            if (now >= nextReport) {
+                long connects = 0;
+                long errors = 0;
+                for (MjpegClient client : clients) {
+                    connects += client.connects();
+                    errors += client.errors();
+                }
+                ServerStats stats = ServerStats.sample(this, false);
+                peakServerThreads = Math.max(peakServerThreads, stats.threads);
+                report((now - start) / 1000, (now - lastReport) / 1000.0, connects - lastConnects,
+                        errors - lastErrors, stats);
+                lastConnects = connects;
+                lastErrors = errors;
+                lastReport = now;
+                nextReport += intervalMs;
+            }
+        }
+        double seconds = (System.currentTimeMillis() - start) / 1000.0;
+        stopClients();
+
+        System.out.println();
+        System.out.println(MjpegClient.summaryHeader());
+        for (MjpegClient client : clients) {
+            System.out.println(client.summary(seconds));
+        }
+
+        boolean clean = true;
+        if (soak) {
+            Thread.sleep(intOption("settle", 5) * 1000L);
+            ServerStats after = ServerStats.sample(this, true);
+            System.out.println("After settling: " + after + " (peak server threads " + peakServerThreads + ")");
+            clean = checkLeaks(baseline, after);
+            System.out.println(clean ? "Soak check passed" : "Soak check FAILED");
+        }
+        stopServer();
+        return clean;
+    }
+
+    private boolean checkLeaks(ServerStats baseline, ServerStats after) {
+        boolean clean = true;
+        if (after.streams != 0) {
+            System.out.println("LEAK: server still reports " + after.streams + " streams");
+            clean = false;
+        }
+        if (after.threads > baseline.threads) {
+            System.out.println("LEAK: " + (after.threads - baseline.threads) + " more server threads than before the load");
+            clean = false;
+        }
+        if (baseline.fds >= 0 && after.fds > baseline.fds + FD_TOLERANCE) {
+            System.out.println("LEAK: " + (after.fds - baseline.fds) + " more open file descriptors than before the load");
+            clean = false;
+        }
+        long maxGrowth = intOption("max-heap-growth-mb", 32) * 1024L * 1024L;
+        if (baseline.heapBytes >= 0 && after.heapBytes - baseline.heapBytes > maxGrowth) {
+            System.out.println(String.format(Locale.ROOT, "LEAK: heap grew by %.1f MB",
+                    (after.heapBytes - baseline.heapBytes) / 1048576.0));
+            clean = false;
+        }
+        return clean;
+    }
+
+    private void report(long elapsedSeconds, double windowSeconds, long reconnects, long errors, ServerStats stats) {
+        int connected = 0;
+        double fpsSum = 0;
+        double fpsMin = Double.MAX_VALUE;
+        double jitterSum = 0;
+        StringBuilder perClient = new StringBuilder();
+        for (MjpegClient client : clients) {
+            MjpegClient.Window window = client.takeWindow(windowSeconds);
+            if (client.isConnected()) {
+                connected++;
+            }
+            fpsSum += window.fps;
+            fpsMin = Math.min(fpsMin, window.fps);
+            jitterSum += window.jitterMs;
+            if (options.containsKey("per-client")) {
+                perClient.append(String.format(Locale.ROOT, "    client %d (%s): %.1f fps, jitter %.1f ms, latency %.1f ms%n",
+                        client.id, client.kind.name().toLowerCase(Locale.ROOT), window.fps, window.jitterMs,
+                        window.latencyMs));
+            }
+        }
+        long[] percentiles = latencies.takePercentiles(50, 99);
+        int count = Math.max(1, clients.size());
+        System.out.println(String.format(Locale.ROOT,
+                "[%5ds] viewers %d/%d connected, fps avg %.1f min %.1f, jitter %.1f ms, latency p50 %d ms p99 %d ms,"
+                        + " reconnects +%d, errors +%d | server: %s",
+                elapsedSeconds, connected, clients.size(), fpsSum / count, clients.isEmpty() ? 0 : fpsMin,
+                jitterSum / count, percentiles[0], percentiles[1], reconnects, errors, stats));
+        System.out.print(perClient);
+    }
+
+    private void startServer() throws IOException {
+        int width = intOption("width", 1280);
+        int height = intOption("height", 720);
+        int frameBytes = intOption("frame-kb", 60) * 1024;
+        VariantRegistry variants = new VariantRegistry();
+        YuvConverter converter = new YuvConverter();
+        PipelineMetrics metrics = new PipelineMetrics();
+        // Stands in for the Android encoder: the size follows the variant's pixels and quality.
+        byte[] filler = new byte[frameBytes * 2];
+        JpegEncoder encoder = (frame, quality, out) -> {
+            long size = (long) frameBytes * frame.width * frame.height / ((long) width * height) * quality / 80;
+            out.write(0xFF);
+            out.write(0xD8);
+            out.write(filler, 0, (int) Math.min(filler.length, size));
+            out.write(0xFF);
+            out.write(0xD9);
+        };
+        this.encoder = new EncoderStage(encoder, converter, metrics);
+        this.encoder.start();
+        server = new VideoHttpServer(port, variants, metrics);
+        server.start();
+        source = new SyntheticFrameSource(width, height, intOption("fps", 30));
+        source.start(new CapturePipeline(converter, this.encoder.addSource(variants), metrics));
+        System.out.println("In-process server on port " + port + ", " + width + "x" + height
+                + ", about " + frameBytes / 1024 + " KB per frame");
+    }
+
+    private void stopServer() {
+        if (server == null) {
+            return;
+        }
+        source.stop();
+        server.stop();
+        encoder.stop();
+    }
+
+    private void startClients() {
+        String path = options.containsKey("path") ? options.get("path") : "/video";
+        long slowBytesPerSecond = intOption("slow-kbps", 50) * 1024L;
+        long churnMs = intOption("churn-ms", 3000);
+        addClients(MjpegClient.Kind.NORMAL, intOption("clients", 20), path, slowBytesPerSecond, churnMs);
+        addClients(MjpegClient.Kind.SLOW, intOption("slow", 5), path, slowBytesPerSecond, churnMs);
+        addClients(MjpegClient.Kind.CHURN, intOption("churn", 5), path, slowBytesPerSecond, churnMs);
+        System.out.println("Started " + clients.size() + " viewers of " + host + ":" + port + path);
+    }
+
+    private void addClients(MjpegClient.Kind kind, int count, String path, long slowBytesPerSecond, long churnMs) {
+        for (int i = 0; i < count; i++) {
+            MjpegClient client = new MjpegClient(clients.size() + 1, kind, host, port, path,
+                    slowBytesPerSecond, churnMs, latencies);
+            Thread thread = new Thread(client, CLIENT_THREAD_PREFIX + client.id);
+            thread.setDaemon(true);
+            clients.add(client);
+            clientThreads.add(thread);
+            thread.start();
+        }
+    }
+
+    private void stopClients() throws InterruptedException {
+        for (MjpegClient client : clients) {
+            client.stop();
+        }
+        for (Thread thread : clientThreads) {
+            thread.join(5000);
+            if (thread.isAlive()) {
+                System.out.println("Viewer thread " + thread.getName() + " did not stop");
+            }
+        }
+    }
+
+    /** Reads {@code ipwebcam_active_clients} from the server's {@code /metrics}; {@code -1} if unavailable. */
+    private int scrapeStreams() {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), 5000);
+            socket.setSoTimeout(5000);
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /metrics HTTP/1.1\r\nHost: " + host + "\r\nConnection: close\r\n\r\n").getBytes(ASCII));
+            out.flush();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            InputStream in = socket.getInputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                response.write(buffer, 0, read);
+            }
+            for (String line : new String(response.toByteArray(), ASCII).split("\n")) {
+                if (line.startsWith("ipwebcam_active_clients ")) {
+                    return (int) Double.parseDouble(line.substring(line.indexOf(' ') + 1).trim());
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            System.out.println("Could not read /metrics: " + e);
+        }
+        return -1;
+    }
+
+    /** Server-side resource counts; process-wide values are {@code -1} for a remote server. */
+    private static final class ServerStats {
+        final int streams;
+        final int threads;
+        final long heapBytes;
+        final long fds;
+
+        private ServerStats(int streams, int threads, long heapBytes, long fds) {
+            this.streams = streams;
+            this.threads = threads;
+            this.heapBytes = heapBytes;
+            this.fds = fds;
+        }
+
+        /** @param collect run a full GC first so heap numbers can be compared */
+        static ServerStats sample(LoadGenerator generator, boolean collect) {
+            int streams = generator.scrapeStreams();
+            if (generator.server == null) {
+                return new ServerStats(streams, -1, -1, -1);
+            }
+            if (collect) {
+                System.gc();
+            }
+            int threads = 0;
+            for (Thread thread : Thread.getAllStackTraces().keySet()) {
+                if (!thread.getName().startsWith(CLIENT_THREAD_PREFIX)) {
+                    threads++;
+                }
+            }
+            long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            long fds = -1;
+            OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+                fds = ((com.sun.management.UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount();
+            }
+            return new ServerStats(streams, threads, heap, fds);
+        }
+
+        @Override
+        public String toString() {
+            if (threads < 0) {
+                return streams + " streams";
+            }
+            return String.format(Locale.ROOT, "%d streams, %d threads, heap %.1f MB, %d fds",
+                    streams, threads, heapBytes / 1048576.0, fds);
+        }
+    }
+}
@@ -0,0 +1,364 @@
+package com.example.ipwebcamapp;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * One simulated viewer of a {@code multipart/x-mixed-replace} stream, run on its own thread.
+ *
+ * <p>It parses every part (boundary, {@code Content-Length}, {@code X-Timestamp} and
+ * {@code X-Frame-Seq}) and records inter-frame intervals and, from the timestamp, how old
+ * each frame was on arrival. A {@link Kind#SLOW} viewer caps how fast it reads so the
+ * server sees backpressure; a {@link Kind#CHURN} viewer hangs up after a random lifetime
+ * and reconnects straight away. Every viewer reconnects after errors and after
+ * {@link #disconnect()}, which is how reconnect storms are produced.</p>
+ */
+final class MjpegClient implements Runnable {
+    enum Kind { NORMAL, SLOW, CHURN }
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int MAX_LINE = 1024;
+    private static final int SLOW_RECEIVE_BUFFER_BYTES = 16 * 1024;
+    private static final long RETRY_DELAY_MS = 200;
+
+    final int id;
+    final Kind kind;
+    private final String host;
+    private final int port;
+    private final String path;
+    private final long slowBytesPerSecond;
+    private final long churnMs;
+    private final LatencyRecorder latencies;
+    private final Random random;
+    private final byte[] skipBuffer = new byte[16 * 1024];
+    private volatile boolean running = true;
+    private volatile Socket socket;
+    /** Set by {@link #disconnect()} so the resulting exception is not counted as an error. */
+    private volatile boolean dropRequested;
+
+    // Totals since start and the current reporting window, guarded by this.
+    private long frames;
+    private long bytes;
+    private long connects;
+    private long rejected;
+    private long errors;
+    private long outOfOrder;
+    private long latencySumMs;
+    private long latencyMaxMs;
+    private long intervalCount;
+    private double intervalSumMs;
+    private double intervalSumSquaresMs;
+    private long windowFrames;
+    private long windowIntervals;
+    private double windowIntervalSumMs;
+    private double windowIntervalSumSquaresMs;
+    private long windowLatencySumMs;
+
+    /**
+     * @param slowBytesPerSecond read rate of a {@link Kind#SLOW} viewer
+     * @param churnMs            mean connection lifetime of a {@link Kind#CHURN} viewer
+     */
+    MjpegClient(int id, Kind kind, String host, int port, String path, long slowBytesPerSecond, long churnMs,
+                LatencyRecorder latencies) {
+        this.id = id;
+        this.kind = kind;
+        this.host = host;
+        this.port = port;
+        this.path = path;
+        this.slowBytesPerSecond = slowBytesPerSecond;
+        this.churnMs = churnMs;
+        this.latencies = latencies;
+        this.random = new Random(id);
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            dropRequested = false;
+            long lifetimeMs = kind == Kind.CHURN ? churnMs / 2 + (long) (random.nextDouble() * churnMs) : 0;
+            try (Socket connection = new Socket()) {
+                if (kind == Kind.SLOW) {
+                    connection.setReceiveBufferSize(SLOW_RECEIVE_BUFFER_BYTES);
+                }
+                connection.connect(new InetSocketAddress(host, port), 5000);
+                socket = connection;
+                synchronized (this) {
+                    connects++;
+                }
+                stream(connection, lifetimeMs == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + lifetimeMs);
+            } catch (IOException | IllegalArgumentException e) {
+                // Malformed numbers in a part header count like any other broken stream.
+                if (running && !dropRequested) {
+                    synchronized (this) {
+                        errors++;
+                    }
+                    pause(RETRY_DELAY_MS);
+                }
+            } finally {
+                socket = null;
+            }
+        }
+    }
+
+    /** Ends the thread; the connection is closed and not reopened. */
+    void stop() {
+        running = false;
+        disconnect();
+    }
+
+    /** Drops the current connection; the viewer reconnects right away. */
+    void disconnect() {
+        dropRequested = true;
+        Socket current = socket;
+        if (current != null) {
+            try {
+                current.close();
+            } catch (IOException e) {
+                // Closing is all that was wanted.
+            }
+        }
+    }
+
+    private void stream(Socket connection, long hangUpAtMs) throws IOException {
+        OutputStream out = connection.getOutputStream();
+        out.write(("GET " + path + " HTTP/1.1\r\nHost: " + host + "\r\nConnection: close\r\n\r\n").getBytes(ASCII));
+        out.flush();
+        InputStream raw = connection.getInputStream();
+        InputStream in = new BufferedInputStream(kind == Kind.SLOW ? new ThrottledInputStream(raw) : raw);
+
+        String status = readLine(in);
+        if (!status.startsWith("HTTP/1.1 200")) {
+            synchronized (this) {
+                rejected++;
+            }
+            // Refused, e.g. by the stream limit; back off like a real viewer would.
+            pause(1000);
+            return;
+        }
+        String boundary = VideoHttpServer.BOUNDARY;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            String lower = line.toLowerCase(Locale.ROOT);
+            int index = lower.indexOf("boundary=");
+            if (lower.startsWith("content-type:") && index >= 0) {
+                boundary = line.substring(index + "boundary=".length()).trim();
+            }
+        }
+
+        String delimiter = "--" + boundary;
+        long lastSequence = -1;
+        long lastFrameNanos = 0;
+        while (running && System.currentTimeMillis() < hangUpAtMs) {
+            line = readLine(in);
+            if (line.isEmpty()) {
+                continue;
+            }
+            if (!line.equals(delimiter)) {
+                throw new IOException("Expected boundary, got: " + line);
+            }
+            int length = -1;
+            long timestampMs = -1;
+            long sequence = -1;
+            while (!(line = readLine(in)).isEmpty()) {
+                int colon = line.indexOf(':');
+                if (colon < 0) {
+                    continue;
+                }
+                String name = line.substring(0, colon).trim().toLowerCase(Locale.ROOT);
+                String value = line.substring(colon + 1).trim();
+                if (name.equals("content-length")) {
+                    length = Integer.parseInt(value);
+                } else if (name.equals("x-timestamp")) {
+                    timestampMs = Long.parseLong(value);
+                } else if (name.equals("x-frame-seq")) {
+                    sequence = Long.parseLong(value);
+                }
+            }
+            if (length < 0) {
+                throw new IOException("Part without Content-Length");
+            }
+            skip(in, length);
+            long now = System.nanoTime();
+            recordFrame(length, lastFrameNanos == 0 ? -1 : (now - lastFrameNanos) / 1e6,
+                    timestampMs < 0 ? -1 : System.currentTimeMillis() - timestampMs,
+                    sequence >= 0 && sequence <= lastSequence);
+            lastFrameNanos = now;
+            lastSequence = Math.max(lastSequence, sequence);
+        }
+    }
+
+    private synchronized void recordFrame(int length, double intervalMs, long latencyMs, boolean reordered) {
+        frames++;
+        windowFrames++;
+        bytes += length;
+        if (reordered) {
+            outOfOrder++;
+        }
+        if (intervalMs >= 0) {
+            intervalCount++;
+            intervalSumMs += intervalMs;
+            intervalSumSquaresMs += intervalMs * intervalMs;
+            windowIntervals++;
+            windowIntervalSumMs += intervalMs;
+            windowIntervalSumSquaresMs += intervalMs * intervalMs;
+        }
+        if (latencyMs >= 0) {
+            latencySumMs += latencyMs;
+            latencyMaxMs = Math.max(latencyMaxMs, latencyMs);
+            windowLatencySumMs += latencyMs;
+            latencies.record(latencyMs);
+        }
+    }
+
+    /** Statistics since the previous call, which starts a new window. */
+    synchronized Window takeWindow(double seconds) {
+        Window window = new Window(windowFrames / seconds,
+                jitter(windowIntervals, windowIntervalSumMs, windowIntervalSumSquaresMs),
+                windowFrames == 0 ? 0 : (double) windowLatencySumMs / windowFrames);
+        windowFrames = 0;
+        windowIntervals = 0;
+        windowIntervalSumMs = 0;
+        windowIntervalSumSquaresMs = 0;
+        windowLatencySumMs = 0;
+        return window;
+    }
+
+    /** One line of the final per-client table. */
+    synchronized String summary(double seconds) {
+        return String.format(Locale.ROOT, "%6d %-6s %8d %7.1f %8.1f %9.1f %11.1f %11d %8d %8d %7d %6d",
+                id, kind.name().toLowerCase(Locale.ROOT), frames, frames / seconds, bytes / 1024.0 / seconds,
+                jitter(intervalCount, intervalSumMs, intervalSumSquaresMs),
+                frames == 0 ? 0 : (double) latencySumMs / frames, latencyMaxMs,
+                connects, rejected, errors, outOfOrder);
+    }
+
+    static String summaryHeader() {
+        return String.format(Locale.ROOT, "%6s %-6s %8s %7s %8s %9s %11s %11s %8s %8s %7s %6s", "client", "kind",
+                "frames", "fps", "KB/s", "jitterMs", "latencyMs", "maxLatency", "connects", "rejected", "errors", "order");
+    }
+
+    synchronized long connects() {
+        return connects;
+    }
+
+    synchronized long errors() {
+        return errors;
+    }
+
+    synchronized long outOfOrder() {
+        return outOfOrder;
+    }
+
+    boolean isConnected() {
+        Socket current = socket;
+        return current != null && current.isConnected() && !current.isClosed();
+    }
+
+    /** Standard deviation of the inter-frame interval in milliseconds. */
+    private static double jitter(long count, double sum, double sumSquares) {
+        if (count < 2) {
+            return 0;
+        }
+        double mean = sum / count;
+        return Math.sqrt(Math.max(0, sumSquares / count - mean * mean));
+    }
+
+    private void skip(InputStream in, int length) throws IOException {
+        int left = length;
+        while (left > 0) {
+            int read = in.read(skipBuffer, 0, Math.min(left, skipBuffer.length));
+            if (read < 0) {
+                throw new EOFException();
+            }
+            left -= read;
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder(64);
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') {
+                    line.setLength(length - 1);
+                }
+                return line.toString();
+            }
+            if (line.length() >= MAX_LINE) {
+                throw new IOException("Line too long");
+            }
+            line.append((char) c);
+        }
+        throw new EOFException();
+    }
+
+    private static void pause(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Statistics of one reporting window. */
+    static final class Window {
+        final double fps;
+        final double jitterMs;
+        final double latencyMs;
+
+        Window(double fps, double jitterMs, double latencyMs) {
+            this.fps = fps;
+            this.jitterMs = jitterMs;
+            this.latencyMs = latencyMs;
+        }
+    }
+
+    /** Reads no faster than {@link #slowBytesPerSecond}, in small chunks. */
+    private final class ThrottledInputStream extends FilterInputStream {
+        private static final int CHUNK_BYTES = 4096;
+        private long lastNanos = System.nanoTime();
+        private double credit;
+
+        ThrottledInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            while (true) {
+                long now = System.nanoTime();
+                // Unused credit is capped so a stalled stream does not turn into a burst.
+                credit = Math.min(CHUNK_BYTES, credit + (now - lastNanos) / 1e9 * slowBytesPerSecond);
+                lastNanos = now;
+                if (credit >= 1) {
+                    break;
+                }
+                pause(10);
+                if (!running) {
+                    throw new EOFException();
+                }
+            }
+            int read = super.read(buffer, offset, (int) Math.min(length, credit));
+            if (read > 0) {
+                credit -= read;
+            }
+            return read;
+        }
+    }
+}
@@ -15,3 +15,6 @@ dependencyResolutionManagement {
 
 rootProject.name = "IPWebcamApp"
 include(":app")
+include(":streaming")
+include(":benchmark")
+include(":loadtest")
@@ -0,0 +1,14 @@
+plugins {
+    id("java-library")
+}
+
+// Plain JVM module: everything in the streaming path that does not touch Android APIs,
+// so it can be exercised and profiled off-device.
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+dependencies {
+    testImplementation("junit:junit:4.13.2")
+}
@@ -0,0 +1,122 @@
+package com.example.ipwebcamapp;
+
+/**
+ * Per-client quality and frame rate controller driven by socket backpressure.
+ *
+ * <p>Once per {@link #WINDOW_NANOS} the server hands in the client's cumulative send
+ * counters. A window in which frames had to be dropped because the previous one was still
+ * being written or took longer to write than the frame interval, the socket spent most of
+ * the time writing, or a frame has been stuck in flight for the whole window, moves the
+ * client one step down the ladder right away.
+ * {@link #RECOVERY_WINDOWS} clean windows in a row move it one step back up; if that probe
+ * fails straight away, the number of clean windows needed doubles so a link that sits
+ * between two steps does not flap. Each step lowers the JPEG quality, the lower ones also
+ * cap the frame rate.</p>
+ *
+ * <p>Qualities come from a fixed ladder, so clients that end up on the same step of the
+ * same width share one {@link StreamVariant} and therefore one encode per frame. Owned by
+ * the server's event loop.</p>
+ */
+final class AdaptiveRate {
+    static final long WINDOW_NANOS = 1_000_000_000L;
+    static final int RECOVERY_WINDOWS = 3;
+    private static final int MAX_RECOVERY_WINDOWS = 48;
+    static final int[] QUALITY_STEPS = {60, 45, 30, 20, 20};
+    /** Frame rate cap per step below the top one; {@code 0} means uncapped. */
+    static final int[] FPS_STEPS = {0, 15, 10, 5, 2};
+    private static final double MAX_DROP_RATIO = 0.1;
+    private static final double MAX_BUSY_RATIO = 0.8;
+    private static final double RECOVERY_BUSY_RATIO = 0.4;
+
+    private final StreamVariant requested;
+    private int level;
+    private int cleanWindows;
+    private int recoveryWindows = RECOVERY_WINDOWS;
+    /** Windows since the last step up, or -1 if the last change was a step down. */
+    private int windowsSinceStepUp = -1;
+    private long windowStartNanos;
+    private long lastSent;
+    private long lastDropped;
+    private long lastLate;
+    private long lastSendNanos;
+
+    AdaptiveRate(StreamVariant requested, long nowNanos) {
+        this.requested = requested;
+        this.windowStartNanos = nowNanos;
+    }
+
+    /** The variant for the current step. */
+    StreamVariant variant() {
+        if (level == 0) {
+            return requested;
+        }
+        return new StreamVariant(requested.width, Math.min(requested.quality, QUALITY_STEPS[level - 1]));
+    }
+
+    /** Frame rate cap of the current step, {@code 0} if uncapped. */
+    int maxFps() {
+        return level == 0 ? 0 : FPS_STEPS[level - 1];
+    }
+
+    /**
+     * Evaluates the window that ends at {@code nowNanos}, if it is over.
+     *
+     * @return {@code true} if the step changed and the client should switch variants
+     */
+    boolean update(StreamClient stream, long nowNanos) {
+        if (nowNanos - windowStartNanos < WINDOW_NANOS) {
+            return false;
+        }
+        return update(stream.framesSent(), stream.framesDropped(), stream.framesLate(),
+                stream.sendNanos(nowNanos), nowNanos);
+    }
+
+    /**
+     * Same as {@link #update(StreamClient, long)} with the client's cumulative counters
+     * passed in directly.
+     */
+    boolean update(long framesSent, long framesDropped, long framesLate, long sendNanos, long nowNanos) {
+        long elapsed = nowNanos - windowStartNanos;
+        if (elapsed < WINDOW_NANOS) {
+            return false;
+        }
+        long sent = framesSent - lastSent;
+        long dropped = framesDropped - lastDropped;
+        long late = framesLate - lastLate;
+        long busyNanos = sendNanos - lastSendNanos;
+        lastSent += sent;
+        lastDropped += dropped;
+        lastLate += late;
+        lastSendNanos += busyNanos;
+        windowStartNanos = nowNanos;
+
+        double busyRatio = (double) busyNanos / elapsed;
+        boolean congested = (sent + dropped > 0 && (double) (dropped + late) / (sent + dropped) > MAX_DROP_RATIO)
+                || busyRatio > MAX_BUSY_RATIO;
+        if (windowsSinceStepUp >= 0) {
+            windowsSinceStepUp++;
+        }
+        if (congested) {
+            cleanWindows = 0;
+            if (windowsSinceStepUp >= 0 && windowsSinceStepUp <= RECOVERY_WINDOWS) {
+                recoveryWindows = Math.min(MAX_RECOVERY_WINDOWS, recoveryWindows * 2);
+            }
+            windowsSinceStepUp = -1;
+            if (level < QUALITY_STEPS.length) {
+                level++;
+                return true;
+            }
+        } else if (dropped == 0 && late == 0 && busyRatio < RECOVERY_BUSY_RATIO && ++cleanWindows >= recoveryWindows) {
+            cleanWindows = 0;
+            if (level > 0) {
+                level--;
+                windowsSinceStepUp = 0;
+                if (level == 0) {
+                    recoveryWindows = RECOVERY_WINDOWS;
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+}
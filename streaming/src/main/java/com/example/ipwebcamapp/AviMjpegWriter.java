@@ -0,0 +1,220 @@
+package com.example.ipwebcamapp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Streaming muxer for Motion-JPEG AVI files.
+ *
+ * <p>The RIFF header is written up front with placeholder sizes, every JPEG is appended as
+ * a {@code 00dc} chunk with one gathering {@link FileChannel} write straight from the
+ * frame's buffer, and the {@code idx1} entries are collected in an index buffer that is
+ * allocated once for {@code maxFrames}. {@link #close()} appends the index and patches the
+ * header with the final frame count and the measured frame rate. Frames are appended to
+ * the end of the file only, so nothing is ever read back or rewritten while recording.</p>
+ */
+public final class AviMjpegWriter implements Closeable {
+    private static final int AVIF_HASINDEX = 0x10;
+    private static final int AVIIF_KEYFRAME = 0x10;
+    private static final int HEADER_SIZE = 224;
+    /** Offset of the {@code movi} fourcc; idx1 offsets are relative to it. */
+    private static final int MOVI_OFFSET = 220;
+    private static final int INDEX_ENTRY_SIZE = 16;
+    private static final long DEFAULT_FRAME_MICROS = 33_333;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int width;
+    private final int height;
+    private final ByteBuffer index;
+    private final ByteBuffer chunkHeader = ByteBuffer.allocateDirect(8).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer padding = ByteBuffer.allocateDirect(1);
+    private final ByteBuffer[] chunkViews = new ByteBuffer[3];
+    private long position = HEADER_SIZE;
+    private int frames;
+    private int maxChunkSize;
+    private long firstTimestampNanos;
+    private long lastTimestampNanos;
+
+    /**
+     * @param maxFrames capacity of the preallocated index; {@link #writeFrame} refuses frames
+     *                  beyond it so the caller can start a new file
+     */
+    public AviMjpegWriter(File file, int width, int height, int maxFrames) throws IOException {
+        this.file = new RandomAccessFile(file, "rw");
+        this.file.setLength(0);
+        this.channel = this.file.getChannel();
+        this.width = width;
+        this.height = height;
+        this.index = ByteBuffer.allocateDirect(maxFrames * INDEX_ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        writeFully(header(), 0);
+        channel.position(HEADER_SIZE);
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    public int frameCount() {
+        return frames;
+    }
+
+    /** Bytes written so far, excluding the index that {@link #close()} appends. */
+    public long size() {
+        return position;
+    }
+
+    /**
+     * Appends one JPEG.
+     *
+     * @param jpeg            read from its position to its limit; the position is not changed
+     * @param timestampNanos  capture time, used to derive the frame rate stored in the header
+     * @return {@code false} if the index is full and the frame was not written
+     */
+    public boolean writeFrame(ByteBuffer jpeg, long timestampNanos) throws IOException {
+        if (index.remaining() < INDEX_ENTRY_SIZE) {
+            return false;
+        }
+        int length = jpeg.remaining();
+        chunkHeader.clear();
+        chunkHeader.putInt(fourcc("00dc")).putInt(length).flip();
+        // RIFF chunks are word aligned.
+        padding.clear().limit(length & 1);
+        chunkViews[0] = chunkHeader;
+        chunkViews[1] = jpeg.duplicate();
+        chunkViews[2] = padding;
+        long chunkStart = position;
+        long total = 8 + length + (length & 1);
+        long written = 0;
+        while (written < total) {
+            written += channel.write(chunkViews);
+        }
+        position += total;
+
+        index.putInt(fourcc("00dc"))
+                .putInt(AVIIF_KEYFRAME)
+                .putInt((int) (chunkStart - MOVI_OFFSET))
+                .putInt(length);
+        if (frames == 0) {
+            firstTimestampNanos = timestampNanos;
+        }
+        lastTimestampNanos = timestampNanos;
+        frames++;
+        maxChunkSize = Math.max(maxChunkSize, length);
+        return true;
+    }
+
+    /** Appends the index, patches the header and closes the file. */
+    @Override
+    public void close() throws IOException {
+        try {
+            ByteBuffer indexHeader = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            indexHeader.putInt(fourcc("idx1")).putInt(index.position()).flip();
+            writeFully(indexHeader, position);
+            index.flip();
+            writeFully(index, position + 8);
+            writeFully(header(), 0);
+        } finally {
+            file.close();
+        }
+    }
+
+    private void writeFully(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            offset += channel.write(buffer, offset);
+        }
+    }
+
+    private long frameMicros() {
+        if (frames < 2 || lastTimestampNanos <= firstTimestampNanos) {
+            return DEFAULT_FRAME_MICROS;
+        }
+        return Math.max(1, (lastTimestampNanos - firstTimestampNanos) / 1000 / (frames - 1));
+    }
+
+    /** Builds the header for the current state, as if the index followed the last frame. */
+    private ByteBuffer header() {
+        long indexSize = 8 + (long) frames * INDEX_ENTRY_SIZE;
+        long frameMicros = frameMicros();
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        out.putInt(fourcc("RIFF")).putInt((int) (position + indexSize - 8)).putInt(fourcc("AVI "));
+        out.putInt(fourcc("LIST")).putInt(192).putInt(fourcc("hdrl"));
+
+        out.putInt(fourcc("avih")).putInt(56);
+        out.putInt((int) frameMicros);
+        out.putInt((int) (maxChunkSize * 1_000_000L / frameMicros));
+        out.putInt(0); // padding granularity
+        out.putInt(AVIF_HASINDEX);
+        out.putInt(frames);
+        out.putInt(0); // initial frames
+        out.putInt(1); // streams
+        out.putInt(maxChunkSize);
+        out.putInt(width).putInt(height);
+        out.putInt(0).putInt(0).putInt(0).putInt(0);
+
+        out.putInt(fourcc("LIST")).putInt(116).putInt(fourcc("strl"));
+        out.putInt(fourcc("strh")).putInt(56);
+        out.putInt(fourcc("vids")).putInt(fourcc("MJPG"));
+        out.putInt(0); // flags
+        out.putShort((short) 0).putShort((short) 0); // priority, language
+        out.putInt(0); // initial frames
+        out.putInt((int) frameMicros).putInt(1_000_000); // scale, rate
+        out.putInt(0); // start
+        out.putInt(frames);
+        out.putInt(maxChunkSize);
+        out.putInt(-1); // quality
+        out.putInt(0); // sample size
+        out.putShort((short) 0).putShort((short) 0).putShort((short) width).putShort((short) height);
+
+        out.putInt(fourcc("strf")).putInt(40);
+        out.putInt(40).putInt(width).putInt(height);
+        out.putShort((short) 1).putShort((short) 24);
+        out.putInt(fourcc("MJPG"));
+        out.putInt(width * height * 3);
+        out.putInt(0).putInt(0).putInt(0).putInt(0);
+
+        out.putInt(fourcc("LIST")).putInt((int) (position - MOVI_OFFSET)).putInt(fourcc("movi"));
+        out.flip();
+        return out;
+    }
+
+    /** Four-character code as a little-endian int. */
+    private static int fourcc(String code) {
+        return code.charAt(0) | code.charAt(1) << 8 | code.charAt(2) << 16 | code.charAt(3) << 24;
+    }
+
+    /**
+     * Reads the frame size from the SOF marker of a JPEG.
+     *
+     * @return {@code {width, height}}, or {@code null} if no SOF marker was found
+     */
+    static int[] readJpegSize(ByteBuffer jpeg) {
+        int i = jpeg.position() + 2;
+        int end = jpeg.limit();
+        while (i + 9 <= end) {
+            if ((jpeg.get(i) & 0xFF) != 0xFF) {
+                return null;
+            }
+            int marker = jpeg.get(i + 1) & 0xFF;
+            int length = (jpeg.get(i + 2) & 0xFF) << 8 | (jpeg.get(i + 3) & 0xFF);
+            // SOF0..SOF15, except DHT (C4), JPG (C8) and DAC (CC).
+            if (marker >= 0xC0 && marker <= 0xCF && marker != 0xC4 && marker != 0xC8 && marker != 0xCC) {
+                int height = (jpeg.get(i + 5) & 0xFF) << 8 | (jpeg.get(i + 6) & 0xFF);
+                int width = (jpeg.get(i + 7) & 0xFF) << 8 | (jpeg.get(i + 8) & 0xFF);
+                return new int[]{width, height};
+            }
+            i += 2 + length;
+        }
+        return null;
+    }
+}
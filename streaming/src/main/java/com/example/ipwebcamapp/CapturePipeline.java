@@ -0,0 +1,47 @@
+package com.example.ipwebcamapp;
+
+/**
+ * {@link FrameSink} that converts incoming frames to NV21 and hands them to its camera's
+ * {@link EncoderStage.Source}. Frames are dropped before conversion while nobody is
+ * subscribed, and, with a {@link MotionDetector}, throttled to its idle rate while the scene
+ * is static. Each camera has its own pipeline, which numbers the camera's frames.
+ */
+public class CapturePipeline implements FrameSink {
+    private final YuvConverter.Source conversion;
+    private final EncoderStage.Source encoder;
+    private final PipelineMetrics metrics;
+    private final PipelineMetrics.CaptureSource capture;
+    private final MotionDetector motion;
+
+    public CapturePipeline(YuvConverter converter, EncoderStage.Source encoder, PipelineMetrics metrics) {
+        this(converter, encoder, metrics, null);
+    }
+
+    /** @param motion detector gating the encode rate, or {@code null} to encode every frame */
+    public CapturePipeline(YuvConverter converter, EncoderStage.Source encoder, PipelineMetrics metrics,
+                           MotionDetector motion) {
+        this.conversion = converter.newSource();
+        this.encoder = encoder;
+        this.metrics = metrics;
+        this.capture = metrics.addSource();
+        this.motion = motion;
+    }
+
+    @Override
+    public void onFrame(YuvFrame frame) {
+        long start = System.nanoTime();
+        long sequence = capture.recordCapture(start, frame.timestampNanos);
+        if (motion != null) {
+            // Analyse even without viewers so motion events are still reported.
+            motion.analyze(frame, start);
+        }
+        if (!encoder.isWanted() || (motion != null && !motion.admit(start))) {
+            return;
+        }
+        byte[] nv21 = conversion.toNv21(frame.width, frame.height,
+                frame.yPlane, frame.yRowStride,
+                frame.uPlane, frame.vPlane, frame.uvRowStride, frame.uvPixelStride);
+        metrics.recordConvert(start, System.nanoTime() - start, sequence);
+        encoder.offer(new Nv21Frame(nv21, frame.width, frame.height, sequence, frame.timestampNanos));
+    }
+}
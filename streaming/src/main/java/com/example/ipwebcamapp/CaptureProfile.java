@@ -0,0 +1,155 @@
+package com.example.ipwebcamapp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Capture resolution and auto-exposure frame rate range for a frame source.
+ *
+ * <p>Use a {@link Selector} to pick one from what the camera supports: capturing at the
+ * sensor maximum only to downscale every frame again wastes ISP time, memory bandwidth and
+ * conversion work, so the selector picks the smallest size that still covers the target
+ * resolution, within the pixel rate the target bitrate allows.</p>
+ */
+public final class CaptureProfile {
+    public final int width;
+    public final int height;
+    /** Auto-exposure frame rate range; {@code 0} if the camera reported none. */
+    public final int minFps;
+    public final int maxFps;
+
+    public CaptureProfile(int width, int height, int minFps, int maxFps) {
+        this.width = width;
+        this.height = height;
+        this.minFps = minFps;
+        this.maxFps = maxFps;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CaptureProfile)) {
+            return false;
+        }
+        CaptureProfile other = (CaptureProfile) o;
+        return width == other.width && height == other.height
+                && minFps == other.minFps && maxFps == other.maxFps;
+    }
+
+    @Override
+    public int hashCode() {
+        return ((31 * width + height) * 31 + minFps) * 31 + maxFps;
+    }
+
+    @Override
+    public String toString() {
+        return "CaptureProfile{" + width + "x" + height + " @ " + minFps + "-" + maxFps + " fps}";
+    }
+
+    /** Collects the supported sizes and frame rate ranges of a camera and picks a profile. */
+    public static final class Selector {
+        /**
+         * Rough size of a JPEG at the default quality, in bits per pixel, used to turn a
+         * bitrate into a pixel budget.
+         */
+        static final double JPEG_BITS_PER_PIXEL = 1.5;
+
+        private final List<int[]> sizes = new ArrayList<>();
+        private final List<int[]> fpsRanges = new ArrayList<>();
+
+        /** @param maxFps highest frame rate the camera can deliver at this size, {@code 0} if unknown */
+        public Selector addSize(int width, int height, int maxFps) {
+            sizes.add(new int[]{width, height, maxFps});
+            return this;
+        }
+
+        public Selector addFpsRange(int minFps, int maxFps) {
+            fpsRanges.add(new int[]{minFps, maxFps});
+            return this;
+        }
+
+        /**
+         * Picks the profile for the given targets; {@code 0} leaves a target open.
+         *
+         * <p>The frame rate range is the one with the lowest upper bound that still reaches
+         * {@code targetFps}, and among those the widest, so exposure can stretch in low light.
+         * The size is the smallest one covering {@code targetWidth x targetHeight} that can run
+         * at that rate and stays within the bitrate's pixel budget; if none covers the target,
+         * the largest one within the budget, and failing that the smallest one.</p>
+         *
+         * @return {@code null} if no size was added
+         */
+        public CaptureProfile select(int targetWidth, int targetHeight, int targetFps, int targetKbps) {
+            int[] range = selectFpsRange(targetFps);
+            int fps = targetFps > 0 ? targetFps : (range != null ? range[1] : 30);
+            if (range != null) {
+                fps = Math.min(fps, range[1]);
+            }
+            long pixelBudget = targetKbps > 0
+                    ? (long) (targetKbps * 1000L / (JPEG_BITS_PER_PIXEL * fps))
+                    : Long.MAX_VALUE;
+
+            // Without a target resolution the largest size within the budget is used.
+            boolean hasTarget = targetWidth > 0 || targetHeight > 0;
+            int[] covering = null;
+            int[] largest = null;
+            int[] smallest = null;
+            for (int[] size : sizes) {
+                long pixels = (long) size[0] * size[1];
+                if (smallest == null || pixels < area(smallest)) {
+                    smallest = size;
+                }
+                if ((size[2] > 0 && size[2] < fps) || pixels > pixelBudget) {
+                    continue;
+                }
+                if (hasTarget && size[0] >= targetWidth && size[1] >= targetHeight
+                        && (covering == null || pixels < area(covering))) {
+                    covering = size;
+                }
+                if (largest == null || pixels > area(largest)) {
+                    largest = size;
+                }
+            }
+            int[] size = covering != null ? covering : largest != null ? largest : smallest;
+            if (size == null) {
+                return null;
+            }
+            return range == null
+                    ? new CaptureProfile(size[0], size[1], 0, 0)
+                    : new CaptureProfile(size[0], size[1], range[0], range[1]);
+        }
+
+        private int[] selectFpsRange(int targetFps) {
+            int[] best = null;
+            for (int[] range : fpsRanges) {
+                if (best == null) {
+                    best = range;
+                    continue;
+                }
+                boolean reaches = targetFps <= 0 || range[1] >= targetFps;
+                boolean bestReaches = targetFps <= 0 || best[1] >= targetFps;
+                if (reaches != bestReaches) {
+                    if (reaches) {
+                        best = range;
+                    }
+                } else if (!reaches) {
+                    // Neither reaches the target: the fastest one gets closest.
+                    if (range[1] > best[1]) {
+                        best = range;
+                    }
+                } else if (targetFps <= 0 ? range[1] > best[1] : range[1] < best[1]) {
+                    best = range;
+                } else if (range[1] == best[1] && range[0] < best[0]) {
+                    best = range;
+                }
+            }
+            return best;
+        }
+
+        private static long area(int[] size) {
+            return (long) size[0] * size[1];
+        }
+    }
+}
@@ -0,0 +1,386 @@
+package com.example.ipwebcamapp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Pool of background JPEG encoders shared by one or more cameras, each feeding it through
+ * its own {@link Source}.
+ *
+ * <p>The capture side calls {@link Source#offer(Nv21Frame)} and never blocks: if every
+ * active worker is busy and the source's queue is full, the oldest frame that has not been
+ * picked up yet is dropped and its buffer returned to the converter pool. Encoding only
+ * happens while some {@link StreamVariant} of the source has subscribers; capture code
+ * should check {@link Source#isWanted()} before converting at all.</p>
+ *
+ * <p>Successive frames are encoded concurrently, one per worker. Each frame gets a ticket
+ * of its source when a worker takes it, and finished frames wait in the source's reorder
+ * buffer of {@link #REORDER_FACTOR} slots per worker until all earlier tickets are done, so
+ * every camera's frames are published in capture order and sequence numbers keep growing
+ * with capture time. Workers do not take new frames of a source whose reorder buffer is
+ * full.</p>
+ *
+ * <p>Between sources, a free worker takes the next frame of the source that has used the
+ * least encode time so far. A source that was idle starts level with the least served
+ * waiting one instead of cashing in the time it did not use, so a camera with expensive
+ * frames cannot starve a cheaper one, and each gets at least an equal share of the pool.</p>
+ *
+ * <p>The number of active workers follows the smoothed encode time of a frame against the
+ * smoothed interval between frames, summed over the sources: a worker is added while the
+ * pool would be busy more than {@link #GROW_LOAD} of the time, and one is parked once the
+ * pool would stay under {@link #SHRINK_LOAD} without it. Each queue holds at most one frame
+ * per active worker, so under overload frames are dropped instead of adding latency.</p>
+ *
+ * <p>Each captured frame is downscaled at most once per output size and encoded at most
+ * once per active variant, and every client of that variant shares the result. The published
+ * frames keep the capture sequence number and time, and the time each frame waited in the
+ * queue is recorded.</p>
+ */
+public class EncoderStage {
+    private static final String TAG = "EncoderStage";
+    private static final int REORDER_FACTOR = 2;
+    private static final double SMOOTHING = 0.1;
+    /** Frames between two evaluations of the pool size. */
+    private static final int RESIZE_INTERVAL_FRAMES = 30;
+    private static final double GROW_LOAD = 0.9;
+    private static final double SHRINK_LOAD = 0.6;
+
+    private final JpegEncoder encoder;
+    private final YuvConverter converter;
+    private final PipelineMetrics metrics;
+    private final int maxWorkers;
+    private final Thread[] threads;
+    private final List<Source> sources = new CopyOnWriteArrayList<>();
+    private final Object lock = new Object();
+    private volatile int activeWorkers = 1;
+    private int framesSinceResize;
+    private volatile boolean running;
+
+    /** Uses up to four workers, leaving a core for capture and the server. */
+    public EncoderStage(JpegEncoder encoder, YuvConverter converter, PipelineMetrics metrics) {
+        this(encoder, converter, metrics, Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1)));
+    }
+
+    /** @param maxWorkers upper bound of concurrent encodes; {@code 1} encodes serially */
+    public EncoderStage(JpegEncoder encoder, YuvConverter converter, PipelineMetrics metrics, int maxWorkers) {
+        this.encoder = encoder;
+        this.converter = converter;
+        this.metrics = metrics;
+        this.maxWorkers = Math.max(1, maxWorkers);
+        this.threads = new Thread[this.maxWorkers];
+    }
+
+    /** Adds a camera whose frames are published to {@code variants}. */
+    public Source addSource(VariantRegistry variants) {
+        Source source = new Source(variants);
+        sources.add(source);
+        return source;
+    }
+
+    public void start() {
+        running = true;
+        metrics.setEncoderWorkers(activeWorkers);
+        for (int i = 0; i < maxWorkers; i++) {
+            threads[i] = new Thread(new Worker(i), TAG + "-" + i);
+            threads[i].start();
+        }
+        StreamLog.d(TAG, "start: Started " + maxWorkers + " encoder threads");
+    }
+
+    public void stop() {
+        running = false;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        for (Thread thread : threads) {
+            if (thread == null) {
+                continue;
+            }
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (lock) {
+            for (Source source : sources) {
+                while (source.queueSize > 0) {
+                    converter.release(source.poll().data);
+                }
+            }
+        }
+        StreamLog.d(TAG, "stop: Encoder threads stopped");
+    }
+
+    private static double smooth(double average, long sample) {
+        return average == 0 ? sample : average + SMOOTHING * (sample - average);
+    }
+
+    /** Called with {@link #lock} held; returns the source the next frame should come from, or {@code null}. */
+    private Source nextSource() {
+        Source next = null;
+        for (Source source : sources) {
+            if (source.canTake() && (next == null || source.servedNanos < next.servedNanos)) {
+                next = source;
+            }
+        }
+        return next;
+    }
+
+    /** Called with {@link #lock} held once a worker has encoded every variant of a frame. */
+    private void recordFrameTime(Source source, long nanos) {
+        source.servedNanos += nanos;
+        source.frameEncodeNanos = smooth(source.frameEncodeNanos, nanos);
+        if (++framesSinceResize < RESIZE_INTERVAL_FRAMES) {
+            return;
+        }
+        framesSinceResize = 0;
+        double load = 0;
+        for (Source each : sources) {
+            if (each.frameIntervalNanos > 0) {
+                load += each.frameEncodeNanos / each.frameIntervalNanos;
+            }
+        }
+        int workers = activeWorkers;
+        if (load > workers * GROW_LOAD && workers < maxWorkers) {
+            workers++;
+        } else if (workers > 1 && load < (workers - 1) * SHRINK_LOAD) {
+            workers--;
+            // Each queue holds one frame per worker; drop what no longer fits.
+            for (Source each : sources) {
+                while (each.queueSize > workers) {
+                    metrics.recordSkipped();
+                    converter.release(each.poll().data);
+                }
+            }
+        } else {
+            return;
+        }
+        activeWorkers = workers;
+        metrics.setEncoderWorkers(workers);
+        lock.notifyAll();
+        StreamLog.d(TAG, "recordFrameTime: " + workers + " encoder workers at a load of "
+                + Math.round(load * 100) / 100.0);
+    }
+
+    /**
+     * One camera's input to the pool: a latest-wins queue, its tickets and its reorder
+     * buffer. Frames of one source are published in order; sources never wait for each
+     * other.
+     */
+    public final class Source {
+        private final VariantRegistry variants;
+        private final Nv21Frame[] queue = new Nv21Frame[maxWorkers];
+        private final long[] queuedNanos = new long[maxWorkers];
+        /** Reorder buffer; the slot of a ticket is {@code ticket % slots.length}. */
+        private final Slot[] slots = new Slot[maxWorkers * REORDER_FACTOR];
+        private int queueHead;
+        private int queueSize;
+        private long nextTicket;
+        /** Next ticket to publish; written while holding this source's monitor. */
+        private volatile long publishTicket;
+        /** Encode time used so far, the key of the fair choice between sources. */
+        private long servedNanos;
+        private double frameIntervalNanos;
+        private double frameEncodeNanos;
+        private long lastOfferNanos;
+
+        private Source(VariantRegistry variants) {
+            this.variants = variants;
+            for (int i = 0; i < slots.length; i++) {
+                slots[i] = new Slot();
+            }
+        }
+
+        /** Whether anybody would receive an encoded frame of this source right now. */
+        public boolean isWanted() {
+            return running && variants.hasSubscribers();
+        }
+
+        /** Hands a converted frame to the encoders, dropping the oldest waiting frame if the queue is full. */
+        public void offer(Nv21Frame frame) {
+            Nv21Frame dropped = null;
+            synchronized (lock) {
+                long now = System.nanoTime();
+                if (lastOfferNanos != 0) {
+                    frameIntervalNanos = smooth(frameIntervalNanos, now - lastOfferNanos);
+                }
+                lastOfferNanos = now;
+                if (queueSize == 0 && nextTicket == publishTicket) {
+                    // Coming back from idle: no credit for the time this source did not use.
+                    long level = Long.MAX_VALUE;
+                    for (Source other : sources) {
+                        if (other != this && other.queueSize > 0) {
+                            level = Math.min(level, other.servedNanos);
+                        }
+                    }
+                    if (level != Long.MAX_VALUE) {
+                        servedNanos = Math.max(servedNanos, level);
+                    }
+                }
+                if (queueSize >= activeWorkers) {
+                    dropped = poll();
+                }
+                queue[(queueHead + queueSize) % queue.length] = frame;
+                queuedNanos[(queueHead + queueSize) % queue.length] = now;
+                queueSize++;
+                lock.notifyAll();
+            }
+            if (dropped != null) {
+                metrics.recordSkipped();
+                converter.release(dropped.data);
+            }
+        }
+
+        private boolean canTake() {
+            return queueSize > 0 && nextTicket - publishTicket < slots.length;
+        }
+
+        private Nv21Frame poll() {
+            Nv21Frame frame = queue[queueHead];
+            queue[queueHead] = null;
+            queueHead = (queueHead + 1) % queue.length;
+            queueSize--;
+            return frame;
+        }
+
+        /** Marks the frame in {@code slot} done and publishes every frame that is now in order. */
+        private void complete(Slot slot) {
+            synchronized (this) {
+                slot.done = true;
+                long ticket = publishTicket;
+                Slot head;
+                while ((head = slots[(int) (ticket % slots.length)]).done && head.ticket == ticket) {
+                    for (int i = 0; i < head.count; i++) {
+                        JpegOutputStream jpeg = head.outputs.get(i);
+                        head.publishers.get(i).publish(jpeg.array(), 0, jpeg.size(),
+                                head.sequence, head.captureNanos);
+                    }
+                    head.done = false;
+                    head.count = 0;
+                    head.publishers.clear();
+                    ticket++;
+                }
+                publishTicket = ticket;
+            }
+            synchronized (lock) {
+                // Workers may be waiting for a free reorder slot.
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /** Encoded output of one frame, waiting for its turn to be published. */
+    private static final class Slot {
+        final List<FramePublisher> publishers = new ArrayList<>();
+        final List<JpegOutputStream> outputs = new ArrayList<>();
+        long ticket;
+        /** Capture sequence number and time of the frame, handed on to the published frames. */
+        long sequence;
+        long captureNanos;
+        int count;
+        boolean done;
+
+        JpegOutputStream output(int index) {
+            while (outputs.size() <= index) {
+                outputs.add(new JpegOutputStream(64 * 1024));
+            }
+            JpegOutputStream out = outputs.get(index);
+            out.reset();
+            return out;
+        }
+    }
+
+    private final class Worker implements Runnable {
+        private final int index;
+        private final List<StreamVariant> activeVariants = new ArrayList<>();
+        private final List<Nv21Frame> scaledFrames = new ArrayList<>();
+
+        Worker(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Source source;
+                    Nv21Frame frame;
+                    long queuedNanos;
+                    Slot slot;
+                    synchronized (lock) {
+                        while (running && (index >= activeWorkers || nextSource() == null)) {
+                            lock.wait();
+                        }
+                        if (!running) {
+                            break;
+                        }
+                        source = nextSource();
+                        queuedNanos = source.queuedNanos[source.queueHead];
+                        frame = source.poll();
+                        long ticket = source.nextTicket++;
+                        slot = source.slots[(int) (ticket % source.slots.length)];
+                        slot.ticket = ticket;
+                        slot.sequence = frame.sequence;
+                        slot.captureNanos = frame.captureNanos;
+                    }
+                    long start = System.nanoTime();
+                    metrics.recordQueueWait(queuedNanos, start - queuedNanos, frame.sequence);
+                    try {
+                        encodeVariants(source.variants, frame, slot);
+                    } catch (RuntimeException e) {
+                        StreamLog.e(TAG, "run: Error encoding frame", e);
+                    } finally {
+                        converter.release(frame.data);
+                        for (int i = 0; i < scaledFrames.size(); i++) {
+                            converter.release(scaledFrames.get(i).data);
+                        }
+                        scaledFrames.clear();
+                        activeVariants.clear();
+                    }
+                    synchronized (lock) {
+                        recordFrameTime(source, System.nanoTime() - start);
+                    }
+                    source.complete(slot);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /** Encodes every active variant into {@code slot}; a failed encode ends the list early. */
+        private void encodeVariants(VariantRegistry variants, Nv21Frame frame, Slot slot) {
+            // The last subscriber may have left while the frame was queued; then this is empty.
+            variants.collectActive(activeVariants, slot.publishers);
+            for (int i = 0; i < activeVariants.size(); i++) {
+                StreamVariant variant = activeVariants.get(i);
+                Nv21Frame source = scaledFor(frame, variant.outputWidth(frame.width),
+                        variant.outputHeight(frame.width, frame.height));
+                JpegOutputStream out = slot.output(i);
+                long start = System.nanoTime();
+                encoder.encode(source, variant.quality, out);
+                metrics.recordEncode(start, System.nanoTime() - start, out.size(), frame.sequence);
+                slot.count = i + 1;
+            }
+        }
+
+        /** Returns {@code frame} scaled to the given size, sharing one scaled copy per size. */
+        private Nv21Frame scaledFor(Nv21Frame frame, int width, int height) {
+            if (width == frame.width && height == frame.height) {
+                return frame;
+            }
+            for (int i = 0; i < scaledFrames.size(); i++) {
+                Nv21Frame scaled = scaledFrames.get(i);
+                if (scaled.width == width && scaled.height == height) {
+                    return scaled;
+                }
+            }
+            byte[] data = converter.acquire(width, height);
+            YuvConverter.scale(frame.data, frame.width, frame.height, data, width, height);
+            Nv21Frame scaled = new Nv21Frame(data, width, height, frame.sequence, frame.captureNanos);
+            scaledFrames.add(scaled);
+            return scaled;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.example.ipwebcamapp;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link FrameSource} that replays frames recorded by {@link FrameFileWriter}, either at a
+ * fixed frame rate or, with {@code fps <= 0}, with the original capture timing.
+ */
+public class FileFrameSource implements FrameSource {
+    private static final String TAG = "FileFrameSource";
+
+    private final File file;
+    private final int fps;
+    private final boolean loop;
+    private Thread thread;
+    private volatile boolean running;
+
+    public FileFrameSource(File file, int fps, boolean loop) {
+        this.file = file;
+        this.fps = fps;
+        this.loop = loop;
+    }
+
+    @Override
+    public void start(FrameSink sink) {
+        running = true;
+        thread = new Thread(() -> runLoop(sink), TAG);
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void runLoop(FrameSink sink) {
+        byte[] nv21 = new byte[0];
+        try {
+            do {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+                    if (in.readInt() != FrameFileWriter.MAGIC || in.readInt() != FrameFileWriter.VERSION) {
+                        throw new IOException("Not a recorded frame file: " + file);
+                    }
+                    long firstRecorded = -1;
+                    long start = System.nanoTime();
+                    long frameIndex = 0;
+                    while (running) {
+                        int width;
+                        try {
+                            width = in.readInt();
+                        } catch (EOFException e) {
+                            break;
+                        }
+                        int height = in.readInt();
+                        long recorded = in.readLong();
+                        int size = YuvConverter.nv21Size(width, height);
+                        if (nv21.length != size) {
+                            nv21 = new byte[size];
+                        }
+                        in.readFully(nv21);
+
+                        if (firstRecorded < 0) {
+                            firstRecorded = recorded;
+                        }
+                        long due = fps > 0
+                                ? start + frameIndex * 1_000_000_000L / fps
+                                : start + (recorded - firstRecorded);
+                        frameIndex++;
+                        long sleepNanos = due - System.nanoTime();
+                        if (sleepNanos > 0) {
+                            Thread.sleep(sleepNanos / 1_000_000L, (int) (sleepNanos % 1_000_000L));
+                        }
+                        sink.onFrame(asYuvFrame(nv21, width, height, System.nanoTime()));
+                    }
+                }
+            } while (running && loop);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | RuntimeException e) {
+            StreamLog.e(TAG, "runLoop: Replay of " + file + " failed", e);
+        }
+    }
+
+    /** Wraps NV21 bytes in the overlapping V/U plane layout a camera would deliver. */
+    private static YuvFrame asYuvFrame(byte[] nv21, int width, int height, long timestampNanos) {
+        int lumaSize = width * height;
+        ByteBuffer yPlane = ByteBuffer.wrap(nv21, 0, lumaSize).slice();
+        ByteBuffer vPlane = ByteBuffer.wrap(nv21, lumaSize, nv21.length - lumaSize - 1).slice();
+        ByteBuffer uPlane = ByteBuffer.wrap(nv21, lumaSize + 1, nv21.length - lumaSize - 1).slice();
+        return new YuvFrame(width, height, timestampNanos, yPlane, width, uPlane, vPlane, width, 2);
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.ipwebcamapp;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * {@link FrameSink} that records raw frames as NV21 into a file that
+ * {@link FileFrameSource} can replay later.
+ *
+ * <p>File layout: the {@link #MAGIC} and {@link #VERSION} ints, then for every frame its
+ * width and height (ints), capture timestamp in nanoseconds (long) and the NV21 bytes.</p>
+ */
+public class FrameFileWriter implements FrameSink, Closeable {
+    private static final String TAG = "FrameFileWriter";
+    static final int MAGIC = 0x59555646; // "YUVF"
+    static final int VERSION = 1;
+
+    private final DataOutputStream out;
+    private byte[] nv21 = new byte[0];
+    private boolean failed;
+
+    public FrameFileWriter(File file) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    @Override
+    public synchronized void onFrame(YuvFrame frame) {
+        if (failed) {
+            return;
+        }
+        int size = YuvConverter.nv21Size(frame.width, frame.height);
+        if (nv21.length != size) {
+            nv21 = new byte[size];
+        }
+        YuvConverter.convert(frame.width, frame.height, frame.yPlane, frame.yRowStride,
+                frame.uPlane, frame.vPlane, frame.uvRowStride, frame.uvPixelStride, nv21);
+        try {
+            out.writeInt(frame.width);
+            out.writeInt(frame.height);
+            out.writeLong(frame.timestampNanos);
+            out.write(nv21);
+        } catch (IOException e) {
+            failed = true;
+            StreamLog.e(TAG, "onFrame: Failed to write frame, recording stopped", e);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
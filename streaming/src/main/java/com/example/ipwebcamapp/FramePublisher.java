@@ -0,0 +1,122 @@
+package com.example.ipwebcamapp;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latest-frame holder that stamps every published frame with a monotonically increasing
+ * sequence number.
+ *
+ * <p>Consumers never poll: event loops register a {@link Listener} to be woken when a frame
+ * arrives, and blocking consumers wait in {@link #awaitFrameAfter(long, long)} until a frame
+ * newer than the one they already have exists. Comparing sequence numbers guarantees a
+ * frame is never delivered twice to the same consumer. Publishers created with a shared
+ * sequence source never reuse a number, even across publishers that come and go.</p>
+ *
+ * <p>Consumers that want a steady stream register themselves with {@link #addSubscriber()}
+ * so producers can skip all work while nobody is watching.</p>
+ */
+public class FramePublisher {
+
+    /** Callback invoked on the publishing thread; implementations must not block. */
+    public interface Listener {
+        void onFrameAvailable(MjpegFrame frame);
+    }
+
+    private final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicInteger subscribers = new AtomicInteger();
+    private final Object lock = new Object();
+    private final AtomicLong sequence;
+    private volatile MjpegFrame latest;
+    private volatile long latestNanos;
+
+    public FramePublisher() {
+        this(new AtomicLong());
+    }
+
+    public FramePublisher(AtomicLong sequenceSource) {
+        this.sequence = sequenceSource;
+    }
+
+    /** Frames the JPEG, assigns it the next sequence number and wakes all consumers. */
+    public MjpegFrame publish(byte[] jpeg, int offset, int length) {
+        return publish(jpeg, offset, length, 0, System.nanoTime());
+    }
+
+    /**
+     * Like {@link #publish(byte[], int, int)} for a JPEG of a captured frame.
+     *
+     * @param captureSequence capture sequence number of the frame, or {@code 0} to use the
+     *                        sequence number assigned here
+     * @param captureNanos    capture time on the {@link System#nanoTime()} clock
+     */
+    public MjpegFrame publish(byte[] jpeg, int offset, int length, long captureSequence, long captureNanos) {
+        MjpegFrame frame;
+        synchronized (lock) {
+            long next = sequence.incrementAndGet();
+            frame = MjpegFrame.fromJpeg(next, captureSequence > 0 ? captureSequence : next, captureNanos,
+                    jpeg, offset, length);
+            latestNanos = System.nanoTime();
+            latest = frame;
+            lock.notifyAll();
+        }
+        for (Listener listener : listeners) {
+            listener.onFrameAvailable(frame);
+        }
+        return frame;
+    }
+
+    public MjpegFrame publish(byte[] jpeg) {
+        return publish(jpeg, 0, jpeg.length);
+    }
+
+    /** Returns the most recent frame, or {@code null} before the first one is published. */
+    public MjpegFrame latest() {
+        return latest;
+    }
+
+    /** Milliseconds since the latest frame was published, or {@link Long#MAX_VALUE} if none was. */
+    public long latestAgeMs() {
+        return latest == null ? Long.MAX_VALUE : (System.nanoTime() - latestNanos) / 1_000_000L;
+    }
+
+    /**
+     * Blocks until a frame with a sequence number greater than {@code sequence} exists.
+     *
+     * @return the newest frame, or {@code null} if none arrived within {@code timeoutMs}
+     */
+    public MjpegFrame awaitFrameAfter(long sequence, long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutMs * 1_000_000L;
+        synchronized (lock) {
+            while (latest == null || latest.sequence() <= sequence) {
+                long remainingMs = (deadline - System.nanoTime()) / 1_000_000L;
+                if (remainingMs <= 0) {
+                    return null;
+                }
+                lock.wait(remainingMs);
+            }
+            return latest;
+        }
+    }
+
+    public void addSubscriber() {
+        subscribers.incrementAndGet();
+    }
+
+    public void removeSubscriber() {
+        subscribers.decrementAndGet();
+    }
+
+    public boolean hasSubscribers() {
+        return subscribers.get() > 0;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+}
@@ -0,0 +1,8 @@
+package com.example.ipwebcamapp;
+
+/** Receives frames from a {@link FrameSource} on the source's own thread. */
+public interface FrameSink {
+
+    /** Must copy anything it needs before returning; the planes are reused afterwards. */
+    void onFrame(YuvFrame frame);
+}
@@ -0,0 +1,14 @@
+package com.example.ipwebcamapp;
+
+/**
+ * Produces raw YUV frames for the conversion, encode and fan-out pipeline.
+ *
+ * <p>Implementations deliver frames on their own thread: the camera, a synthetic test
+ * pattern or a replayed recording, so everything downstream can also run off-device.</p>
+ */
+public interface FrameSource {
+
+    void start(FrameSink sink);
+
+    void stop();
+}
@@ -0,0 +1,11 @@
+package com.example.ipwebcamapp;
+
+/**
+ * Compresses NV21 frames into JPEG. The {@link EncoderStage} calls implementations from
+ * several worker threads at once, so they must not keep per-call state in fields.
+ */
+public interface JpegEncoder {
+
+    /** Writes the JPEG for {@code frame} into {@code out}, which has already been reset. */
+    void encode(Nv21Frame frame, int quality, JpegOutputStream out);
+}
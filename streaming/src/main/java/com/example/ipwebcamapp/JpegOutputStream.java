@@ -0,0 +1,16 @@
+package com.example.ipwebcamapp;
+
+import java.io.ByteArrayOutputStream;
+
+/** Reusable output buffer that exposes its backing array so encoded bytes are not copied again. */
+public final class JpegOutputStream extends ByteArrayOutputStream {
+
+    public JpegOutputStream(int initialSize) {
+        super(initialSize);
+    }
+
+    /** Backing array; only the first {@link #size()} bytes are valid. */
+    public byte[] array() {
+        return buf;
+    }
+}
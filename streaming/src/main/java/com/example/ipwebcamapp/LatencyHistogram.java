@@ -0,0 +1,75 @@
+package com.example.ipwebcamapp;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-bucket histogram updated with plain atomic increments, cheap enough to record on
+ * every frame. Rendered in the Prometheus text format.
+ */
+public final class LatencyHistogram {
+    /** Upper bounds in seconds for durations measured in the pipeline. */
+    static final double[] LATENCY_BUCKETS = {0.001, 0.002, 0.005, 0.01, 0.02, 0.05, 0.1, 0.2, 0.5, 1};
+    /** Upper bounds in bytes for encoded frame sizes. */
+    static final double[] SIZE_BUCKETS = {10e3, 20e3, 50e3, 100e3, 200e3, 500e3, 1e6, 2e6};
+
+    private final double[] bounds;
+    private final long[] scaledBounds;
+    private final double scale;
+    private final AtomicLongArray counts;
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * @param bounds bucket upper bounds in the exported unit
+     * @param scale  number of recorded units per exported unit, e.g. 1e9 when recording
+     *               nanoseconds and exporting seconds
+     */
+    public LatencyHistogram(double[] bounds, double scale) {
+        this.bounds = bounds;
+        this.scale = scale;
+        this.scaledBounds = new long[bounds.length];
+        for (int i = 0; i < bounds.length; i++) {
+            scaledBounds[i] = (long) (bounds[i] * scale);
+        }
+        this.counts = new AtomicLongArray(bounds.length + 1);
+    }
+
+    /** Histogram of durations recorded in nanoseconds and exported in seconds. */
+    public static LatencyHistogram nanosToSeconds() {
+        return new LatencyHistogram(LATENCY_BUCKETS, 1e9);
+    }
+
+    /** Histogram of sizes recorded and exported in bytes. */
+    public static LatencyHistogram bytes() {
+        return new LatencyHistogram(SIZE_BUCKETS, 1);
+    }
+
+    public void record(long value) {
+        int bucket = 0;
+        while (bucket < scaledBounds.length && value > scaledBounds[bucket]) {
+            bucket++;
+        }
+        counts.incrementAndGet(bucket);
+        sum.addAndGet(value);
+        count.incrementAndGet();
+    }
+
+    public long count() {
+        return count.get();
+    }
+
+    void writePrometheus(StringBuilder out, String name, String help) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" histogram\n");
+        long cumulative = 0;
+        for (int i = 0; i < bounds.length; i++) {
+            cumulative += counts.get(i);
+            out.append(name).append("_bucket{le=\"").append(bounds[i]).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += counts.get(bounds.length);
+        out.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+        out.append(name).append("_sum ").append(sum.get() / scale).append('\n');
+        out.append(name).append("_count ").append(count.get()).append('\n');
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.ipwebcamapp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * One pre-framed multipart part of the MJPEG stream.
+ *
+ * <p>The boundary/header bytes, the JPEG payload and the part trailer are built once per
+ * captured frame as read-only direct buffers. Every client shares the same content and
+ * only takes cheap {@link ByteBuffer#duplicate()} views to track its own write position,
+ * so the per-frame cost does not grow with the number of viewers. Each part carries the
+ * capture time and sequence number of its frame as {@code X-Timestamp} (epoch milliseconds)
+ * and {@code X-Frame-Seq}, so viewers can measure the latency themselves. The header of the
+ * equivalent {@link WebSocket} binary message is built alongside, so WebSocket viewers share
+ * the same payload.</p>
+ */
+public final class MjpegFrame {
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final ByteBuffer TRAILER = readOnlyDirect("\r\n".getBytes(ASCII));
+
+    private static final ByteBuffer EMPTY = readOnlyDirect(new byte[0]);
+
+    private final long sequence;
+    private final long captureSequence;
+    private final long captureNanos;
+    private final long timestampMs;
+    private final long publishedNanos = System.nanoTime();
+    private final ByteBuffer header;
+    private final ByteBuffer webSocketHeader;
+    private final ByteBuffer payload;
+
+    private MjpegFrame(long sequence, long captureSequence, long captureNanos, long timestampMs,
+                       ByteBuffer header, ByteBuffer webSocketHeader, ByteBuffer payload) {
+        this.sequence = sequence;
+        this.captureSequence = captureSequence;
+        this.captureNanos = captureNanos;
+        this.timestampMs = timestampMs;
+        this.header = header;
+        this.webSocketHeader = webSocketHeader;
+        this.payload = payload;
+    }
+
+    /** Builds the shared multipart part for a freshly encoded JPEG. */
+    public static MjpegFrame fromJpeg(long sequence, byte[] jpeg) {
+        return fromJpeg(sequence, jpeg, 0, jpeg.length);
+    }
+
+    public static MjpegFrame fromJpeg(long sequence, byte[] jpeg, int offset, int length) {
+        return fromJpeg(sequence, sequence, System.nanoTime(), jpeg, offset, length);
+    }
+
+    /**
+     * @param captureSequence sequence number the frame got at capture
+     * @param captureNanos    capture time on the {@link System#nanoTime()} clock
+     */
+    public static MjpegFrame fromJpeg(long sequence, long captureSequence, long captureNanos,
+                                      byte[] jpeg, int offset, int length) {
+        long timestampMs = System.currentTimeMillis() - (System.nanoTime() - captureNanos) / 1_000_000L;
+        byte[] header = ("--" + VideoHttpServer.BOUNDARY + "\r\n"
+                + "Content-Type: image/jpeg\r\n"
+                + "Content-Length: " + length + "\r\n"
+                + "X-Timestamp: " + timestampMs + "\r\n"
+                + "X-Frame-Seq: " + captureSequence + "\r\n"
+                + "\r\n").getBytes(ASCII);
+        byte[] webSocketHeader = WebSocket.frameHeader(captureSequence, timestampMs, length);
+        // Both headers share one direct allocation; each client only ever uses one of them.
+        ByteBuffer headers = ByteBuffer.allocateDirect(header.length + webSocketHeader.length);
+        headers.put(header).put(webSocketHeader);
+        ByteBuffer payload = ByteBuffer.allocateDirect(length);
+        payload.put(jpeg, offset, length);
+        payload.flip();
+        return new MjpegFrame(sequence, captureSequence, captureNanos, timestampMs, slice(headers, 0, header.length),
+                slice(headers, header.length, webSocketHeader.length), payload.asReadOnlyBuffer());
+    }
+
+    /** Position of this frame in its publisher's stream; strictly increasing. */
+    public long sequence() {
+        return sequence;
+    }
+
+    /** Sequence number the frame got at capture; shared by every variant of the frame. */
+    public long captureSequence() {
+        return captureSequence;
+    }
+
+    /** Capture time on the {@link System#nanoTime()} clock. */
+    public long captureNanos() {
+        return captureNanos;
+    }
+
+    /** Capture time in epoch milliseconds. */
+    public long timestampMs() {
+        return timestampMs;
+    }
+
+    /** When this frame was built, on the {@link System#nanoTime()} clock. */
+    public long publishedNanos() {
+        return publishedNanos;
+    }
+
+    /** Size of the JPEG payload in bytes. */
+    public int jpegLength() {
+        return payload.capacity();
+    }
+
+    /** Total number of bytes this part occupies on the wire. */
+    public int partLength() {
+        return header.capacity() + payload.capacity() + TRAILER.capacity();
+    }
+
+    /** Returns a read-only view of the JPEG bytes, positioned at zero. */
+    public ByteBuffer jpeg() {
+        return payload.duplicate();
+    }
+
+    /**
+     * Fills {@code views} with independent header, payload and trailer views of this part,
+     * ready to be handed to a single gathering write.
+     */
+    void writeViews(ByteBuffer[] views) {
+        views[0] = header.duplicate();
+        views[1] = payload.duplicate();
+        views[2] = TRAILER.duplicate();
+    }
+
+    /**
+     * Fills {@code views} with the WebSocket message header and payload views of this frame;
+     * the third view is left empty so the same gathering write applies.
+     */
+    void writeWebSocketViews(ByteBuffer[] views) {
+        views[0] = webSocketHeader.duplicate();
+        views[1] = payload.duplicate();
+        views[2] = EMPTY;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset).limit(offset + length);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    private static ByteBuffer readOnlyDirect(byte[] bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+        buffer.put(bytes);
+        buffer.flip();
+        return buffer.asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,188 @@
+package com.example.ipwebcamapp;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cheap motion detector on the luma plane, used to throttle encoding of static scenes.
+ *
+ * <p>Every frame's Y plane is sampled down to a {@value #GRID_WIDTH}x{@value #GRID_HEIGHT}
+ * grid (each cell the mean of four pixels) and compared block by block against a slowly
+ * adapting reference using the sum of absolute differences, so gradual lighting changes
+ * are absorbed while anything that moves shows up within a frame. While the scene is
+ * static, {@link #admit(long)} only lets frames through at the idle frame rate; the first
+ * frame with motion is admitted immediately.</p>
+ *
+ * <p>{@link #analyze(YuvFrame, long)} and {@link #admit(long)} are called from the frame
+ * source thread; the event list and metrics may be read from any thread.</p>
+ */
+public class MotionDetector {
+    static final int GRID_WIDTH = 80;
+    static final int GRID_HEIGHT = 60;
+    private static final int BLOCK_SIZE = 10;
+    private static final int BLOCKS_X = GRID_WIDTH / BLOCK_SIZE;
+    private static final int BLOCKS_Y = GRID_HEIGHT / BLOCK_SIZE;
+    /** Mean absolute luma difference per cell above which a block counts as changed. */
+    private static final int BLOCK_THRESHOLD = 12;
+    private static final int MIN_CHANGED_BLOCKS = 2;
+    /** Motion stays active this long after the last changed frame. */
+    private static final long HOLD_NANOS = 2_000_000_000L;
+    /** The reference follows the scene by 1/2^REFERENCE_SHIFT of the difference per frame. */
+    private static final int REFERENCE_SHIFT = 3;
+    private static final int MAX_EVENTS = 100;
+
+    private final int[] grid = new int[GRID_WIDTH * GRID_HEIGHT];
+    /** Reference grid in fixed point with 4 fractional bits. */
+    private final int[] reference = new int[GRID_WIDTH * GRID_HEIGHT];
+    private final long[] eventStartMs = new long[MAX_EVENTS];
+    private final long[] eventEndMs = new long[MAX_EVENTS];
+    private final int[] eventPeakBlocks = new int[MAX_EVENTS];
+    private final AtomicLong framesGated = new AtomicLong();
+    private int eventCount;
+    private long totalEvents;
+    private int referenceWidth;
+    private int referenceHeight;
+    private volatile int idleFps;
+    private volatile boolean moving;
+    private volatile int changedBlocks;
+    private long lastMotionNanos;
+    private long lastAdmittedNanos;
+    private boolean admittedAny;
+
+    /** @param idleFps frame rate while the scene is static; {@code 0} disables throttling */
+    public MotionDetector(int idleFps) {
+        this.idleFps = idleFps;
+    }
+
+    public void setIdleFps(int idleFps) {
+        this.idleFps = idleFps;
+    }
+
+    public boolean isMoving() {
+        return moving;
+    }
+
+    /** Updates the motion state from the luma plane of {@code frame}. */
+    public void analyze(YuvFrame frame, long nowNanos) {
+        sample(frame.yPlane, frame.yRowStride, frame.width, frame.height);
+        if (frame.width != referenceWidth || frame.height != referenceHeight) {
+            for (int i = 0; i < grid.length; i++) {
+                reference[i] = grid[i] << 4;
+            }
+            referenceWidth = frame.width;
+            referenceHeight = frame.height;
+            return;
+        }
+
+        int changed = 0;
+        for (int by = 0; by < BLOCKS_Y; by++) {
+            for (int bx = 0; bx < BLOCKS_X; bx++) {
+                int sad = 0;
+                for (int y = by * BLOCK_SIZE; y < (by + 1) * BLOCK_SIZE; y++) {
+                    int row = y * GRID_WIDTH;
+                    for (int x = bx * BLOCK_SIZE; x < (bx + 1) * BLOCK_SIZE; x++) {
+                        sad += Math.abs((grid[row + x] << 4) - reference[row + x]);
+                    }
+                }
+                if (sad > (BLOCK_THRESHOLD << 4) * BLOCK_SIZE * BLOCK_SIZE) {
+                    changed++;
+                }
+            }
+        }
+        for (int i = 0; i < grid.length; i++) {
+            reference[i] += ((grid[i] << 4) - reference[i]) >> REFERENCE_SHIFT;
+        }
+        changedBlocks = changed;
+
+        if (changed >= MIN_CHANGED_BLOCKS) {
+            lastMotionNanos = nowNanos;
+            if (!moving) {
+                moving = true;
+                startEvent(changed);
+            } else {
+                updateEvent(changed);
+            }
+        } else if (moving && nowNanos - lastMotionNanos > HOLD_NANOS) {
+            moving = false;
+            endEvent();
+        }
+    }
+
+    /**
+     * Whether a frame captured at {@code nowNanos} should be encoded: always while there is
+     * motion, otherwise at most {@code idleFps} times per second.
+     */
+    public boolean admit(long nowNanos) {
+        int fps = idleFps;
+        if (moving || fps <= 0 || !admittedAny || nowNanos - lastAdmittedNanos >= 1_000_000_000L / fps) {
+            lastAdmittedNanos = nowNanos;
+            admittedAny = true;
+            return true;
+        }
+        framesGated.incrementAndGet();
+        return false;
+    }
+
+    /** Fills {@link #grid} with the mean of four pixels at the quarter points of each cell. */
+    private void sample(ByteBuffer y, int rowStride, int width, int height) {
+        int base = y.position();
+        for (int gy = 0; gy < GRID_HEIGHT; gy++) {
+            int top = base + (4 * gy + 1) * height / (4 * GRID_HEIGHT) * rowStride;
+            int bottom = base + (4 * gy + 3) * height / (4 * GRID_HEIGHT) * rowStride;
+            for (int gx = 0; gx < GRID_WIDTH; gx++) {
+                int left = (4 * gx + 1) * width / (4 * GRID_WIDTH);
+                int right = (4 * gx + 3) * width / (4 * GRID_WIDTH);
+                grid[gy * GRID_WIDTH + gx] = ((y.get(top + left) & 0xFF) + (y.get(top + right) & 0xFF)
+                        + (y.get(bottom + left) & 0xFF) + (y.get(bottom + right) & 0xFF)) >> 2;
+            }
+        }
+    }
+
+    private synchronized void startEvent(int blocks) {
+        int slot = (int) (totalEvents % MAX_EVENTS);
+        eventStartMs[slot] = System.currentTimeMillis();
+        eventEndMs[slot] = 0;
+        eventPeakBlocks[slot] = blocks;
+        totalEvents++;
+        eventCount = Math.min(eventCount + 1, MAX_EVENTS);
+    }
+
+    private synchronized void updateEvent(int blocks) {
+        int slot = (int) ((totalEvents - 1) % MAX_EVENTS);
+        eventPeakBlocks[slot] = Math.max(eventPeakBlocks[slot], blocks);
+    }
+
+    private synchronized void endEvent() {
+        eventEndMs[(int) ((totalEvents - 1) % MAX_EVENTS)] = System.currentTimeMillis();
+    }
+
+    /**
+     * Recent motion events, oldest first, as JSON. {@code end} is {@code 0} for an event
+     * that is still in progress; times are epoch milliseconds.
+     */
+    public synchronized String toJson() {
+        StringBuilder out = new StringBuilder(64 + eventCount * 64);
+        out.append("{\"moving\":").append(moving)
+                .append(",\"changedBlocks\":").append(changedBlocks)
+                .append(",\"events\":[");
+        for (long i = totalEvents - eventCount; i < totalEvents; i++) {
+            int slot = (int) (i % MAX_EVENTS);
+            if (i > totalEvents - eventCount) {
+                out.append(',');
+            }
+            out.append("{\"start\":").append(eventStartMs[slot])
+                    .append(",\"end\":").append(eventEndMs[slot])
+                    .append(",\"peakBlocks\":").append(eventPeakBlocks[slot]).append('}');
+        }
+        return out.append("]}").toString();
+    }
+
+    synchronized void writePrometheus(StringBuilder out) {
+        PipelineMetrics.counter(out, "ipwebcam_motion_events_total", "Motion events detected.", totalEvents);
+        PipelineMetrics.gauge(out, "ipwebcam_motion_active", "Whether motion is currently detected.", moving ? 1 : 0);
+        PipelineMetrics.gauge(out, "ipwebcam_motion_changed_blocks",
+                "Blocks that differed from the reference in the last frame.", changedBlocks);
+        PipelineMetrics.counter(out, "ipwebcam_frames_idle_skipped_total",
+                "Frames not encoded because the scene was static.", framesGated.get());
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.ipwebcamapp;
+
+/** A converted camera frame waiting to be encoded. The data array is owned by a {@link YuvConverter} pool. */
+public final class Nv21Frame {
+    public final byte[] data;
+    public final int width;
+    public final int height;
+    /** Capture sequence number assigned by {@link PipelineMetrics.CaptureSource#recordCapture(long, long)}. */
+    public final long sequence;
+    /** Capture time on the {@link System#nanoTime()} clock. */
+    public final long captureNanos;
+
+    public Nv21Frame(byte[] data, int width, int height, long sequence, long captureNanos) {
+        this.data = data;
+        this.width = width;
+        this.height = height;
+        this.sequence = sequence;
+        this.captureNanos = captureNanos;
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.ipwebcamapp;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and histograms for the capture, conversion, encode and send stages. Every update
+ * is a handful of atomic operations so the hot path is not slowed down by being measured.
+ * Each frame keeps its capture time and sequence number all the way to the socket, so the
+ * time it spends in every stage and queue is recorded separately and adds up to the
+ * on-device latency. Per-client send statistics live in {@link StreamClient} and are added
+ * by the server when it renders {@code /metrics}. Individual events also go to the
+ * {@link TraceRing}, which replaces per-frame logging. Capture statistics are kept per
+ * frame source in a {@link CaptureSource}, so every camera numbers its frames on its own.
+ */
+public class PipelineMetrics {
+    private static final double FPS_SMOOTHING = 0.1;
+
+    final TraceRing trace;
+    final AtomicLong framesSkipped = new AtomicLong();
+    final AtomicLong framesEncoded = new AtomicLong();
+    final LatencyHistogram deliveryLatency = LatencyHistogram.nanosToSeconds();
+    final LatencyHistogram convertLatency = LatencyHistogram.nanosToSeconds();
+    final LatencyHistogram queueLatency = LatencyHistogram.nanosToSeconds();
+    final LatencyHistogram encodeLatency = LatencyHistogram.nanosToSeconds();
+    final LatencyHistogram encodedSize = LatencyHistogram.bytes();
+    final LatencyHistogram sendQueueLatency = LatencyHistogram.nanosToSeconds();
+    final LatencyHistogram sendLatency = LatencyHistogram.nanosToSeconds();
+    final LatencyHistogram frameLatency = LatencyHistogram.nanosToSeconds();
+
+    private final List<CaptureSource> sources = new CopyOnWriteArrayList<>();
+    private volatile int encoderWorkers;
+
+    public PipelineMetrics() {
+        this(new TraceRing());
+    }
+
+    public PipelineMetrics(TraceRing trace) {
+        this.trace = trace;
+    }
+
+    public TraceRing trace() {
+        return trace;
+    }
+
+    /** Registers a frame source; sources are labelled by the order they were added in. */
+    public CaptureSource addSource() {
+        CaptureSource source = new CaptureSource(this, sources.size());
+        sources.add(source);
+        return source;
+    }
+
+    public void recordConvert(long startNanos, long nanos, long sequence) {
+        convertLatency.record(nanos);
+        trace.record(TraceRing.STAGE_CONVERT, startNanos, nanos, sequence, 0);
+    }
+
+    /** A converted frame waited {@code nanos} in the encoder queue until a worker took it. */
+    public void recordQueueWait(long queuedNanos, long nanos, long sequence) {
+        queueLatency.record(nanos);
+        trace.record(TraceRing.STAGE_QUEUE, queuedNanos, nanos, sequence, 0);
+    }
+
+    /** A converted frame was replaced in the encoder handoff before it could be encoded. */
+    public void recordSkipped() {
+        framesSkipped.incrementAndGet();
+    }
+
+    public void recordEncode(long startNanos, long nanos, int bytes, long sequence) {
+        framesEncoded.incrementAndGet();
+        encodeLatency.record(nanos);
+        encodedSize.record(bytes);
+        trace.record(TraceRing.STAGE_ENCODE, startNanos, nanos, sequence, 0);
+    }
+
+    /**
+     * Called on the server's event loop once a frame has been fully written to a client.
+     *
+     * @param queueNanos   time from publishing the frame until the client started writing it
+     * @param latencyNanos time from capture until the frame was fully written
+     */
+    void recordSend(long startNanos, long nanos, long queueNanos, long latencyNanos, long sequence,
+                    long clientId) {
+        sendQueueLatency.record(queueNanos);
+        sendLatency.record(nanos);
+        frameLatency.record(latencyNanos);
+        trace.record(TraceRing.STAGE_SEND, startNanos, nanos, sequence, clientId);
+    }
+
+    /** Called by the {@link EncoderStage} whenever it resizes its worker pool. */
+    public void setEncoderWorkers(int workers) {
+        encoderWorkers = workers;
+    }
+
+    void writePrometheus(StringBuilder out) {
+        out.append("# HELP ipwebcam_frames_captured_total Frames delivered by the frame source.\n")
+                .append("# TYPE ipwebcam_frames_captured_total counter\n");
+        for (CaptureSource source : sources) {
+            out.append("ipwebcam_frames_captured_total{camera=\"").append(source.camera).append("\"} ")
+                    .append(source.framesCaptured).append('\n');
+        }
+        out.append("# HELP ipwebcam_capture_fps Smoothed frame rate of the frame source.\n")
+                .append("# TYPE ipwebcam_capture_fps gauge\n");
+        for (CaptureSource source : sources) {
+            out.append("ipwebcam_capture_fps{camera=\"").append(source.camera).append("\"} ")
+                    .append(source.captureFps).append('\n');
+        }
+        counter(out, "ipwebcam_frames_skipped_total", "Converted frames replaced before the encoder picked them up.", framesSkipped.get());
+        gauge(out, "ipwebcam_encoder_workers", "Encoder threads currently taking frames.", encoderWorkers);
+        counter(out, "ipwebcam_frames_encoded_total", "JPEG encodes across all stream variants.", framesEncoded.get());
+        deliveryLatency.writePrometheus(out, "ipwebcam_capture_delivery_seconds",
+                "Time from the sensor timestamp until the frame reached the pipeline.");
+        convertLatency.writePrometheus(out, "ipwebcam_convert_seconds", "Time to convert a YUV frame to NV21.");
+        queueLatency.writePrometheus(out, "ipwebcam_encode_queue_seconds",
+                "Time a converted frame waited for an encoder thread.");
+        encodeLatency.writePrometheus(out, "ipwebcam_encode_seconds", "Time to encode one variant of a frame as JPEG.");
+        encodedSize.writePrometheus(out, "ipwebcam_encoded_frame_bytes", "Size of encoded JPEG frames.");
+        sendQueueLatency.writePrometheus(out, "ipwebcam_send_queue_seconds",
+                "Time from publishing a frame until a client started writing it.");
+        sendLatency.writePrometheus(out, "ipwebcam_send_seconds", "Time to write a frame to a client.");
+        frameLatency.writePrometheus(out, "ipwebcam_frame_latency_seconds",
+                "Time from capture until a frame was fully written to a client.");
+    }
+
+    static void counter(StringBuilder out, String name, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" counter\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    static void gauge(StringBuilder out, String name, String help, double value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(" gauge\n");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    /**
+     * Capture sequence and frame rate of one frame source. Only that source's thread records
+     * into it, so the per-frame path needs neither locks nor atomic read-modify-writes.
+     */
+    public static final class CaptureSource {
+        private final PipelineMetrics metrics;
+        final int camera;
+        private volatile long framesCaptured;
+        private volatile double captureFps;
+        private long lastCaptureNanos;
+
+        private CaptureSource(PipelineMetrics metrics, int camera) {
+            this.metrics = metrics;
+            this.camera = camera;
+        }
+
+        /**
+         * Called from the frame source's thread for every delivered frame.
+         *
+         * @param captureNanos capture time of the frame on the {@link System#nanoTime()} clock
+         * @return the frame's capture sequence number, counted per source from 1
+         */
+        public long recordCapture(long nowNanos, long captureNanos) {
+            long sequence = framesCaptured + 1;
+            framesCaptured = sequence;
+            long delivery = Math.max(0, nowNanos - captureNanos);
+            metrics.deliveryLatency.record(delivery);
+            metrics.trace.record(TraceRing.STAGE_CAPTURE, nowNanos - delivery, delivery, sequence, 0);
+            if (lastCaptureNanos != 0 && nowNanos > lastCaptureNanos) {
+                double fps = 1e9 / (nowNanos - lastCaptureNanos);
+                double smoothed = captureFps;
+                captureFps = smoothed == 0 ? fps : smoothed + FPS_SMOOTHING * (fps - smoothed);
+            }
+            lastCaptureNanos = nowNanos;
+            return sequence;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.example.ipwebcamapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Keeps the most recent encoded frames of one {@link StreamVariant} so the footage from just
+ * before an event can be exported with {@link #exportAvi(File, int)}.
+ *
+ * <p>JPEG bytes live in a single direct {@link ByteBuffer} arena allocated once up front and
+ * written like a ring: a new frame goes right after the previous one, wraps to the start of
+ * the arena when it does not fit at the end, and evicts the oldest frames it would
+ * overlap. Per-frame bookkeeping is kept in primitive arrays indexed by a running ticket
+ * number, so buffering a frame allocates no buffers and the heap does not grow with the
+ * amount of buffered video. Frames older than the configured window are evicted too.</p>
+ */
+public class PreRollBuffer {
+    private static final String TAG = "PreRollBuffer";
+    private static final int MAX_FPS = 60;
+
+    private final VariantRegistry variants;
+    private final StreamVariant variant;
+    private final long maxAgeNanos;
+    private final ByteBuffer arena;
+    /** Views of the arena, only used while holding {@link #lock}. */
+    private final ByteBuffer writeView;
+    private final ByteBuffer readView;
+    private final int maxEntries;
+    private final int[] offsets;
+    private final int[] lengths;
+    private final long[] timestamps;
+    private final FramePublisher.Listener listener = frame -> append(frame.jpeg(), frame.captureNanos());
+    private final Object lock = new Object();
+    /** Ticket of the oldest buffered frame; the newest is {@code nextTicket - 1}. */
+    private long headTicket;
+    private long nextTicket;
+    private int writeOffset;
+    private FramePublisher source;
+
+    /**
+     * @param capacityBytes size of the off-heap arena
+     * @param maxSeconds    frames older than this are dropped even if the arena has room
+     */
+    public PreRollBuffer(VariantRegistry variants, StreamVariant variant, int capacityBytes, int maxSeconds) {
+        this.variants = variants;
+        this.variant = variant;
+        this.maxAgeNanos = maxSeconds * 1_000_000_000L;
+        this.arena = ByteBuffer.allocateDirect(capacityBytes);
+        this.writeView = arena.duplicate();
+        this.readView = arena.duplicate();
+        this.maxEntries = maxSeconds * MAX_FPS;
+        this.offsets = new int[maxEntries];
+        this.lengths = new int[maxEntries];
+        this.timestamps = new long[maxEntries];
+    }
+
+    public synchronized void start() {
+        if (source != null) {
+            return;
+        }
+        // Subscribing keeps the encoder running so there is always something to export.
+        source = variants.get(variant);
+        source.addSubscriber();
+        source.addListener(listener);
+        StreamLog.d(TAG, "start: Buffering up to " + arena.capacity() + " bytes");
+    }
+
+    public synchronized void stop() {
+        if (source == null) {
+            return;
+        }
+        source.removeListener(listener);
+        source.removeSubscriber();
+        source = null;
+        synchronized (lock) {
+            headTicket = nextTicket;
+            writeOffset = 0;
+        }
+    }
+
+    public synchronized boolean isBuffering() {
+        return source != null;
+    }
+
+    public int maxSeconds() {
+        return (int) (maxAgeNanos / 1_000_000_000L);
+    }
+
+    /** Copies one JPEG into the arena, consuming {@code jpeg}; runs on the publishing thread. */
+    void append(ByteBuffer jpeg, long timestampNanos) {
+        int length = jpeg.remaining();
+        if (length > arena.capacity()) {
+            return;
+        }
+        synchronized (lock) {
+            while (headTicket < nextTicket
+                    && timestampNanos - timestamps[slot(headTicket)] > maxAgeNanos) {
+                headTicket++;
+            }
+            if (nextTicket - headTicket == maxEntries) {
+                headTicket++;
+            }
+            int offset = reserve(length);
+            writeView.clear();
+            writeView.position(offset);
+            writeView.put(jpeg);
+            int slot = slot(nextTicket++);
+            offsets[slot] = offset;
+            lengths[slot] = length;
+            timestamps[slot] = timestampNanos;
+            writeOffset = offset + length;
+        }
+    }
+
+    /** Evicts the oldest frames until {@code length} contiguous bytes are free; returns their offset. */
+    private int reserve(int length) {
+        int offset = writeOffset;
+        while (true) {
+            if (headTicket == nextTicket) {
+                return offset + length <= arena.capacity() ? offset : 0;
+            }
+            int oldest = offsets[slot(headTicket)];
+            if (oldest >= offset) {
+                // Live data continues after the write position, up to the end and from the start.
+                if (offset + length <= oldest) {
+                    return offset;
+                }
+                headTicket++;
+            } else if (offset + length <= arena.capacity()) {
+                // Live data lies entirely before the write position.
+                return offset;
+            } else {
+                offset = 0;
+            }
+        }
+    }
+
+    private int slot(long ticket) {
+        return (int) (ticket % maxEntries);
+    }
+
+    /**
+     * Writes the frames of the last {@code seconds} into an MJPEG AVI file. Capture and
+     * buffering continue meanwhile; frames are copied out one at a time and any that are
+     * overwritten before they are reached are left out of the clip.
+     *
+     * @return the number of frames written; the file is left empty if there were none
+     */
+    public int exportAvi(File file, int seconds) throws IOException {
+        long first;
+        long end;
+        synchronized (lock) {
+            end = nextTicket;
+            first = end;
+            if (end > headTicket) {
+                long since = timestamps[slot(end - 1)] - seconds * 1_000_000_000L;
+                while (first > headTicket && timestamps[slot(first - 1)] >= since) {
+                    first--;
+                }
+            }
+        }
+        AviMjpegWriter writer = null;
+        ByteBuffer frame = ByteBuffer.allocateDirect(0);
+        try {
+            for (long ticket = first; ticket < end; ticket++) {
+                long timestampNanos;
+                synchronized (lock) {
+                    if (ticket < headTicket) {
+                        continue;
+                    }
+                    int slot = slot(ticket);
+                    if (frame.capacity() < lengths[slot]) {
+                        frame = ByteBuffer.allocateDirect(lengths[slot] + lengths[slot] / 4);
+                    }
+                    readView.limit(offsets[slot] + lengths[slot]).position(offsets[slot]);
+                    frame.clear();
+                    frame.put(readView).flip();
+                    timestampNanos = timestamps[slot];
+                }
+                int[] size = AviMjpegWriter.readJpegSize(frame);
+                if (size == null) {
+                    continue;
+                }
+                if (writer == null) {
+                    writer = new AviMjpegWriter(file, size[0], size[1], (int) (end - ticket));
+                } else if (size[0] != writer.width() || size[1] != writer.height()) {
+                    // The capture size changed within the window; a file has only one size.
+                    continue;
+                }
+                writer.writeFrame(frame, timestampNanos);
+            }
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+        }
+        return writer == null ? 0 : writer.frameCount();
+    }
+}
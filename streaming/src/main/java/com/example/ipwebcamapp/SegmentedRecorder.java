@@ -0,0 +1,314 @@
+package com.example.ipwebcamapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the frames of one {@link StreamVariant} into time-rolled MJPEG AVI segments.
+ *
+ * <p>The publisher's listener only drops the shared {@link MjpegFrame} reference into a
+ * small ring and returns, so the encoder is never blocked by the disk: if the writer thread
+ * falls behind, new frames are counted as dropped instead of queued. Segments are written
+ * as {@code .avi.part} files and renamed once their index is complete; after every segment
+ * the oldest recordings are deleted until the retention limits hold again.</p>
+ */
+public class SegmentedRecorder {
+    private static final String TAG = "SegmentedRecorder";
+    static final String EXTENSION = ".avi";
+    private static final String PART_EXTENSION = ".avi.part";
+    private static final int QUEUE_CAPACITY = 32;
+    /** Index capacity per segment; a segment is rolled early if it fills up. */
+    private static final int MAX_FPS = 60;
+    private static final long RETRY_DELAY_MS = 5000;
+    /**
+     * Orders recordings by the timestamp in their name, then by the suffix of segments that
+     * started within the same second; comparing whole names would put {@code _10} before
+     * {@code _2}.
+     */
+    private static final Comparator<File> RECORDING_ORDER = (a, b) -> {
+        String first = a.getName();
+        String second = b.getName();
+        int byStamp = stamp(first).compareTo(stamp(second));
+        return byStamp != 0 ? byStamp : Integer.compare(suffix(first), suffix(second));
+    };
+
+    private final File directory;
+    private final VariantRegistry variants;
+    private final StreamVariant variant;
+    private final long segmentMs;
+    private final long retentionMs;
+    private final long maxTotalBytes;
+    private final FramePublisher.Listener listener = this::enqueue;
+    private final Object lock = new Object();
+    private final MjpegFrame[] queue = new MjpegFrame[QUEUE_CAPACITY];
+    private int queueHead;
+    private int queueSize;
+    final AtomicLong framesRecorded = new AtomicLong();
+    final AtomicLong framesDropped = new AtomicLong();
+
+    private FramePublisher source;
+    private Thread thread;
+    private volatile boolean running;
+    private AviMjpegWriter writer;
+    private File partFile;
+    private long segmentStartNanos;
+    private long retryAfterNanos;
+    private String lastStamp;
+    private int lastSuffix;
+
+    /**
+     * @param retentionMs   recordings older than this are deleted
+     * @param maxTotalBytes oldest recordings are deleted while the total size exceeds this
+     */
+    public SegmentedRecorder(File directory, VariantRegistry variants, StreamVariant variant,
+                             long segmentMs, long retentionMs, long maxTotalBytes) {
+        this.directory = directory;
+        this.variants = variants;
+        this.variant = variant;
+        this.segmentMs = segmentMs;
+        this.retentionMs = retentionMs;
+        this.maxTotalBytes = maxTotalBytes;
+    }
+
+    public void start() {
+        if (running) {
+            return;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            StreamLog.e(TAG, "start: Cannot create recording directory " + directory);
+            return;
+        }
+        deleteStaleParts();
+        retryAfterNanos = System.nanoTime();
+        running = true;
+        thread = new Thread(this::runLoop, TAG);
+        thread.start();
+        // Subscribing keeps the encoder producing frames while nobody is streaming. The
+        // publisher is looked up now because an idle variant may have been evicted meanwhile.
+        source = variants.get(variant);
+        source.addSubscriber();
+        source.addListener(listener);
+        StreamLog.d(TAG, "start: Recording to " + directory);
+    }
+
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        source.removeListener(listener);
+        source.removeSubscriber();
+        running = false;
+        synchronized (lock) {
+            lock.notifyAll();
+        }
+        try {
+            thread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        StreamLog.d(TAG, "stop: Recording stopped");
+    }
+
+    public boolean isRecording() {
+        return running;
+    }
+
+    void writePrometheus(StringBuilder out) {
+        PipelineMetrics.counter(out, "ipwebcam_recorder_frames_recorded_total",
+                "Frames written to recording segments.", framesRecorded.get());
+        PipelineMetrics.counter(out, "ipwebcam_recorder_frames_dropped_total",
+                "Frames not recorded because the writer fell behind or failed.", framesDropped.get());
+    }
+
+    /** Completed recordings, oldest first. */
+    public List<File> recordings() {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+        if (files == null) {
+            return Collections.emptyList();
+        }
+        Arrays.sort(files, RECORDING_ORDER);
+        return Arrays.asList(files);
+    }
+
+    private static String stamp(String name) {
+        int end = name.indexOf('_');
+        return name.substring(0, end >= 0 ? end : name.length() - EXTENSION.length());
+    }
+
+    private static int suffix(String name) {
+        int start = name.indexOf('_');
+        if (start < 0) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(name.substring(start + 1, name.length() - EXTENSION.length()));
+        } catch (NumberFormatException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    /** Returns the completed recording with the given file name, or {@code null}. */
+    public File recording(String name) {
+        for (File file : recordings()) {
+            if (file.getName().equals(name)) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    /** Runs on the publishing thread; must not block. */
+    private void enqueue(MjpegFrame frame) {
+        synchronized (lock) {
+            if (queueSize == QUEUE_CAPACITY) {
+                framesDropped.incrementAndGet();
+                return;
+            }
+            int tail = (queueHead + queueSize) % QUEUE_CAPACITY;
+            queue[tail] = frame;
+            queueSize++;
+            lock.notifyAll();
+        }
+    }
+
+    private void runLoop() {
+        try {
+            while (true) {
+                MjpegFrame frame;
+                synchronized (lock) {
+                    while (running && queueSize == 0) {
+                        lock.wait();
+                    }
+                    if (queueSize == 0) {
+                        break;
+                    }
+                    frame = queue[queueHead];
+                    queue[queueHead] = null;
+                    queueHead = (queueHead + 1) % QUEUE_CAPACITY;
+                    queueSize--;
+                }
+                // Capture time, so a backed-up queue does not stretch segments or the frame rate.
+                record(frame, frame.captureNanos());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            closeSegment();
+        }
+    }
+
+    private void record(MjpegFrame frame, long timestampNanos) {
+        if (timestampNanos - retryAfterNanos < 0) {
+            framesDropped.incrementAndGet();
+            return;
+        }
+        ByteBuffer jpeg = frame.jpeg();
+        int[] size = AviMjpegWriter.readJpegSize(jpeg);
+        if (size == null) {
+            framesDropped.incrementAndGet();
+            return;
+        }
+        try {
+            if (writer != null && (timestampNanos - segmentStartNanos >= segmentMs * 1_000_000L
+                    || writer.width() != size[0] || writer.height() != size[1])) {
+                closeSegment();
+            }
+            if (writer == null || !writer.writeFrame(jpeg, timestampNanos)) {
+                closeSegment();
+                openSegment(size[0], size[1], timestampNanos);
+                writer.writeFrame(jpeg, timestampNanos);
+            }
+            framesRecorded.incrementAndGet();
+        } catch (IOException e) {
+            StreamLog.e(TAG, "record: Failed to write segment, retrying later", e);
+            framesDropped.incrementAndGet();
+            closeSegment();
+            retryAfterNanos = timestampNanos + RETRY_DELAY_MS * 1_000_000L;
+        }
+    }
+
+    private void openSegment(int width, int height, long timestampNanos) throws IOException {
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(new Date());
+        // A segment rolled early (size change, full index) may start within the same second.
+        // Suffixes keep counting up even if retention deleted an earlier one, so they stay in
+        // recording order.
+        int suffix = stamp.equals(lastStamp) ? lastSuffix + 1 : 0;
+        String name = suffix == 0 ? stamp : stamp + "_" + suffix;
+        while (new File(directory, name + EXTENSION).exists()) {
+            name = stamp + "_" + ++suffix;
+        }
+        lastStamp = stamp;
+        lastSuffix = suffix;
+        partFile = new File(directory, name + PART_EXTENSION);
+        int maxFrames = (int) Math.min(Integer.MAX_VALUE / 16, segmentMs * MAX_FPS / 1000 + 1);
+        writer = new AviMjpegWriter(partFile, width, height, maxFrames);
+        segmentStartNanos = timestampNanos;
+    }
+
+    private void closeSegment() {
+        if (writer == null) {
+            return;
+        }
+        AviMjpegWriter closing = writer;
+        File part = partFile;
+        writer = null;
+        partFile = null;
+        try {
+            closing.close();
+            String name = part.getName();
+            File done = new File(directory, name.substring(0, name.length() - PART_EXTENSION.length()) + EXTENSION);
+            if (!part.renameTo(done)) {
+                StreamLog.w(TAG, "closeSegment: Could not rename " + part);
+            }
+        } catch (IOException e) {
+            StreamLog.e(TAG, "closeSegment: Failed to finish segment " + part, e);
+            if (!part.delete()) {
+                StreamLog.w(TAG, "closeSegment: Could not delete " + part);
+            }
+        }
+        applyRetention();
+    }
+
+    /** Deletes the oldest recordings until both the age and the size limit hold. */
+    private void applyRetention() {
+        List<File> files = new ArrayList<>(recordings());
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        long oldest = System.currentTimeMillis() - retentionMs;
+        for (File file : files) {
+            if (total <= maxTotalBytes && file.lastModified() >= oldest) {
+                break;
+            }
+            long length = file.length();
+            if (file.delete()) {
+                total -= length;
+                StreamLog.d(TAG, "applyRetention: Deleted " + file.getName());
+            }
+        }
+    }
+
+    /** Segments left over from a crash have no index and are not playable. */
+    private void deleteStaleParts() {
+        File[] parts = directory.listFiles((dir, name) -> name.endsWith(PART_EXTENSION));
+        if (parts == null) {
+            return;
+        }
+        for (File part : parts) {
+            if (part.delete()) {
+                StreamLog.w(TAG, "deleteStaleParts: Deleted unfinished segment " + part.getName());
+            }
+        }
+    }
+}
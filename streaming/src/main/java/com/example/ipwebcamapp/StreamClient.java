@@ -0,0 +1,271 @@
+package com.example.ipwebcamapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.util.ArrayDeque;
+
+/**
+ * Per-client send state of the MJPEG fan-out: a queue for response headers plus at most
+ * one frame in flight and one pending frame. A newer frame replaces a pending one that has
+ * not started yet, so a slow consumer skips stale frames instead of queueing them.
+ *
+ * <p>Frames go out as multipart parts, or as {@link WebSocket} binary messages once
+ * {@link #useWebSocketFraming()} has been called. Buffers queued while a frame is partially
+ * written follow that frame, so control messages never end up inside one.</p>
+ *
+ * <p>Independent of the selector so the write path can also be driven directly, e.g. from
+ * benchmarks. Not thread-safe; owned by the server's event loop. Each completed frame is
+ * recorded in the optional {@link PipelineMetrics}: how long it waited for this client, how
+ * long writing it took and how old it was once written. Smoothed per-client values of the
+ * wait and the age tell a slow client apart from a slow pipeline. A frame that takes
+ * longer to write than the interval between the frames offered to this client counts as
+ * late; that is the first sign of a socket that cannot keep up.</p>
+ */
+final class StreamClient {
+    private static final double SMOOTHING = 0.1;
+
+    private final GatheringByteChannel channel;
+    private final PipelineMetrics metrics;
+    private final long clientId;
+    private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+    private final ByteBuffer[] frameViews = new ByteBuffer[3];
+    private final int[] savedLimits = new int[3];
+    private boolean webSocketFraming;
+    private boolean frameInFlight;
+    private MjpegFrame pendingFrame;
+    private MjpegFrame frameInFlightSource;
+    private long lastSentSequence;
+    private long lastSentCaptureSequence;
+    private long framesSent;
+    private long framesDropped;
+    private long framesLate;
+    private long bytesSent;
+    private long sendNanos;
+    private long frameStartNanos;
+    private double queueNanos;
+    private double latencyNanos;
+    private double frameIntervalNanos;
+    private long lastOfferedPublishedNanos;
+
+    StreamClient(GatheringByteChannel channel) {
+        this(channel, null, 0);
+    }
+
+    StreamClient(GatheringByteChannel channel, PipelineMetrics metrics, long clientId) {
+        this.channel = channel;
+        this.metrics = metrics;
+        this.clientId = clientId;
+    }
+
+    void enqueue(ByteBuffer buffer) {
+        queue.add(buffer);
+    }
+
+    /** Sends the following frames as WebSocket binary messages instead of multipart parts. */
+    void useWebSocketFraming() {
+        webSocketFraming = true;
+    }
+
+    /** Keeps only the newest frame while an older one is still being written. */
+    void offerFrame(MjpegFrame frame) {
+        if (frame == null || frame.sequence() <= lastSentSequence
+                || (pendingFrame != null && frame.sequence() <= pendingFrame.sequence())) {
+            return;
+        }
+        if (pendingFrame != null) {
+            framesDropped++;
+        }
+        if (lastOfferedPublishedNanos != 0) {
+            frameIntervalNanos = smooth(frameIntervalNanos,
+                    Math.max(0, frame.publishedNanos() - lastOfferedPublishedNanos));
+        }
+        lastOfferedPublishedNanos = frame.publishedNanos();
+        pendingFrame = frame;
+    }
+
+    /** Forgets a frame that has not started yet, e.g. because the stream is being closed. */
+    void discardPendingFrame() {
+        pendingFrame = null;
+    }
+
+    /**
+     * Writes as much queued data as the channel accepts.
+     *
+     * @return {@code true} if everything was written, {@code false} if the channel is full
+     *         and the caller should wait until it becomes writable again
+     */
+    boolean write() throws IOException {
+        return write(Long.MAX_VALUE);
+    }
+
+    /**
+     * Writes as much queued data as the channel accepts, but at most {@code maxBytes}.
+     *
+     * @return {@code true} if everything was written, {@code false} if data is left because
+     *         the channel is full or the byte budget ran out
+     */
+    boolean write(long maxBytes) throws IOException {
+        long budget = maxBytes;
+        if (frameInFlight) {
+            if (budget <= 0) {
+                return false;
+            }
+            budget -= writeFrame(budget);
+            if (frameInFlight) {
+                return false;
+            }
+        }
+        ByteBuffer head;
+        while ((head = queue.peek()) != null) {
+            if (budget <= 0) {
+                return false;
+            }
+            long written = head.remaining() <= budget ? channel.write(head) : writeLimited(head, budget);
+            bytesSent += written;
+            budget -= written;
+            if (head.hasRemaining()) {
+                return false;
+            }
+            queue.poll();
+        }
+        while (pendingFrame != null) {
+            if (budget <= 0) {
+                return false;
+            }
+            promotePendingFrame();
+            budget -= writeFrame(budget);
+            if (frameInFlight) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Continues the frame in flight and completes it if everything was written. */
+    private long writeFrame(long budget) throws IOException {
+        long written = budget == Long.MAX_VALUE
+                ? channel.write(frameViews, 0, frameViews.length)
+                : writeLimited(frameViews, budget);
+        bytesSent += written;
+        for (ByteBuffer view : frameViews) {
+            if (view.hasRemaining()) {
+                return written;
+            }
+        }
+        frameInFlight = false;
+        framesSent++;
+        long end = System.nanoTime();
+        long duration = end - frameStartNanos;
+        sendNanos += duration;
+        if (frameIntervalNanos > 0 && duration > frameIntervalNanos) {
+            framesLate++;
+        }
+        MjpegFrame frame = frameInFlightSource;
+        frameInFlightSource = null;
+        long queued = Math.max(0, frameStartNanos - frame.publishedNanos());
+        long latency = Math.max(0, end - frame.captureNanos());
+        queueNanos = smooth(queueNanos, queued);
+        latencyNanos = smooth(latencyNanos, latency);
+        if (metrics != null) {
+            metrics.recordSend(frameStartNanos, duration, queued, latency, frame.captureSequence(), clientId);
+        }
+        return written;
+    }
+
+    private long writeLimited(ByteBuffer buffer, long budget) throws IOException {
+        int limit = buffer.limit();
+        buffer.limit(buffer.position() + (int) Math.min(buffer.remaining(), budget));
+        try {
+            return channel.write(buffer);
+        } finally {
+            buffer.limit(limit);
+        }
+    }
+
+    /** Gathering write of {@code views} with their limits temporarily cut to {@code budget} bytes. */
+    private long writeLimited(ByteBuffer[] views, long budget) throws IOException {
+        long left = budget;
+        for (int i = 0; i < views.length; i++) {
+            savedLimits[i] = views[i].limit();
+            int take = (int) Math.min(views[i].remaining(), left);
+            views[i].limit(views[i].position() + take);
+            left -= take;
+        }
+        try {
+            return channel.write(views, 0, views.length);
+        } finally {
+            for (int i = 0; i < views.length; i++) {
+                views[i].limit(savedLimits[i]);
+            }
+        }
+    }
+
+    private void promotePendingFrame() {
+        if (webSocketFraming) {
+            pendingFrame.writeWebSocketViews(frameViews);
+        } else {
+            pendingFrame.writeViews(frameViews);
+        }
+        frameStartNanos = System.nanoTime();
+        lastSentSequence = pendingFrame.sequence();
+        lastSentCaptureSequence = pendingFrame.captureSequence();
+        frameInFlightSource = pendingFrame;
+        pendingFrame = null;
+        frameInFlight = true;
+    }
+
+    long framesSent() {
+        return framesSent;
+    }
+
+    /** Frames fully written plus the one being written, if any. */
+    long framesStarted() {
+        return framesSent + (frameInFlight ? 1 : 0);
+    }
+
+    /** Capture sequence number of the frame most recently started, as sent to the viewer. */
+    long lastSentCaptureSequence() {
+        return lastSentCaptureSequence;
+    }
+
+    long framesDropped() {
+        return framesDropped;
+    }
+
+    /** Frames whose write took longer than the smoothed interval between offered frames. */
+    long framesLate() {
+        return framesLate;
+    }
+
+    long bytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Total time frames have spent being written, including the one in flight up to
+     * {@code nowNanos}. Grows close to wall-clock time when the socket cannot keep up.
+     */
+    long sendNanos(long nowNanos) {
+        return sendNanos + (frameInFlight ? nowNanos - frameStartNanos : 0);
+    }
+
+    /** Smoothed time frames waited between being published and being started for this client. */
+    long queueNanos() {
+        return (long) queueNanos;
+    }
+
+    /** Smoothed time from capture until a frame was fully written to this client. */
+    long latencyNanos() {
+        return (long) latencyNanos;
+    }
+
+    private static double smooth(double average, long sample) {
+        return average == 0 ? sample : average + SMOOTHING * (sample - average);
+    }
+
+    /** Buffers and frames waiting to be written, including one partially written. */
+    int queueDepth() {
+        return queue.size() + (frameInFlight ? 1 : 0) + (pendingFrame != null ? 1 : 0);
+    }
+}
@@ -0,0 +1,32 @@
+package com.example.ipwebcamapp;
+
+/**
+ * Admission and bandwidth limits of the streaming server. A value of {@code 0} disables
+ * the respective limit.
+ */
+public final class StreamLimits {
+    public static final StreamLimits NONE = new StreamLimits(0, 0, 0, 0);
+
+    /** Concurrent {@code /video} streams; further requests are answered with {@code 503}. */
+    public final int maxStreams;
+    /** Frames per second sent to each stream. */
+    public final int maxClientFps;
+    /** Egress of each stream in bytes per second. */
+    public final long clientBytesPerSecond;
+    /** Egress of all responses together in bytes per second. */
+    public final long totalBytesPerSecond;
+
+    public StreamLimits(int maxStreams, int maxClientFps, long clientBytesPerSecond, long totalBytesPerSecond) {
+        this.maxStreams = Math.max(0, maxStreams);
+        this.maxClientFps = Math.max(0, maxClientFps);
+        this.clientBytesPerSecond = Math.max(0, clientBytesPerSecond);
+        this.totalBytesPerSecond = Math.max(0, totalBytesPerSecond);
+    }
+
+    @Override
+    public String toString() {
+        return "StreamLimits{maxStreams=" + maxStreams + ", maxClientFps=" + maxClientFps
+                + ", clientBytesPerSecond=" + clientBytesPerSecond
+                + ", totalBytesPerSecond=" + totalBytesPerSecond + "}";
+    }
+}
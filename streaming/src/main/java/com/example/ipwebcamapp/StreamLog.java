@@ -0,0 +1,65 @@
+package com.example.ipwebcamapp;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Minimal {@code android.util.Log}-style facade for the streaming module, which has to run
+ * on a plain JVM as well as on the device. Messages go to {@code java.util.logging} unless
+ * the app installs a {@link Sink}; Android's bridge drops everything below INFO, so the app
+ * routes the module's logging to {@code android.util.Log} instead.
+ */
+public final class StreamLog {
+
+    /** Receives the streaming module's log messages. */
+    public interface Sink {
+        void d(String tag, String message);
+
+        void w(String tag, String message);
+
+        void e(String tag, String message, Throwable throwable);
+    }
+
+    private static final Sink JAVA_LOGGING = new Sink() {
+        @Override
+        public void d(String tag, String message) {
+            Logger.getLogger(tag).log(Level.FINE, message);
+        }
+
+        @Override
+        public void w(String tag, String message) {
+            Logger.getLogger(tag).log(Level.WARNING, message);
+        }
+
+        @Override
+        public void e(String tag, String message, Throwable throwable) {
+            Logger.getLogger(tag).log(Level.SEVERE, message, throwable);
+        }
+    };
+
+    private static volatile Sink sink = JAVA_LOGGING;
+
+    private StreamLog() {
+    }
+
+    /** Sends all further messages to {@code sink}; {@code null} restores java.util.logging. */
+    public static void setSink(Sink sink) {
+        StreamLog.sink = sink != null ? sink : JAVA_LOGGING;
+    }
+
+    static void d(String tag, String message) {
+        sink.d(tag, message);
+    }
+
+    static void w(String tag, String message) {
+        sink.w(tag, message);
+    }
+
+    static void e(String tag, String message) {
+        sink.e(tag, message, null);
+    }
+
+    static void e(String tag, String message, Throwable throwable) {
+        sink.e(tag, message, throwable);
+    }
+}
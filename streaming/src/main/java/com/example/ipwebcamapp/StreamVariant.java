@@ -0,0 +1,85 @@
+package com.example.ipwebcamapp;
+
+import java.util.Map;
+
+/**
+ * Output resolution and JPEG quality requested by a client. Clients asking for the same
+ * variant share one encode per captured frame.
+ */
+public final class StreamVariant {
+    public static final int DEFAULT_QUALITY = 80;
+    public static final StreamVariant DEFAULT = new StreamVariant(0, DEFAULT_QUALITY);
+
+    private static final int MIN_WIDTH = 16;
+
+    /** Requested output width, or {@code 0} for the capture resolution. */
+    public final int width;
+    public final int quality;
+
+    public StreamVariant(int width, int quality) {
+        this.width = width;
+        this.quality = quality;
+    }
+
+    /**
+     * Builds a variant from {@code width} and {@code quality} query parameters.
+     *
+     * @throws IllegalArgumentException if a parameter is present but not a number
+     */
+    public static StreamVariant fromQuery(Map<String, String> query) {
+        int width = parse(query.get("width"), 0);
+        int quality = parse(query.get("quality"), DEFAULT_QUALITY);
+        if (width != 0) {
+            width = Math.max(MIN_WIDTH, width & ~1);
+        }
+        quality = Math.max(1, Math.min(100, quality));
+        return new StreamVariant(width, quality);
+    }
+
+    private static int parse(String value, int defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number: " + value, e);
+        }
+    }
+
+    /** Output width for a frame captured at {@code sourceWidth}; never upscales. */
+    public int outputWidth(int sourceWidth) {
+        return width == 0 || width >= sourceWidth ? sourceWidth : width;
+    }
+
+    /** Output height keeping the source aspect ratio, rounded down to an even number. */
+    public int outputHeight(int sourceWidth, int sourceHeight) {
+        int outputWidth = outputWidth(sourceWidth);
+        if (outputWidth == sourceWidth) {
+            return sourceHeight;
+        }
+        return Math.max(2, (int) ((long) sourceHeight * outputWidth / sourceWidth) & ~1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof StreamVariant)) {
+            return false;
+        }
+        StreamVariant other = (StreamVariant) o;
+        return width == other.width && quality == other.quality;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * width + quality;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamVariant{width=" + (width == 0 ? "native" : String.valueOf(width)) + ", quality=" + quality + "}";
+    }
+}
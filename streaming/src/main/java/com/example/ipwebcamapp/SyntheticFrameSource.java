@@ -0,0 +1,111 @@
+package com.example.ipwebcamapp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * {@link FrameSource} that renders a moving test pattern at a fixed resolution and frame
+ * rate. Chroma is laid out like most camera HALs deliver it (V and U planes overlapping in
+ * one interleaved buffer), so the converter takes the same path as on a device.
+ */
+public class SyntheticFrameSource implements FrameSource {
+    private static final String TAG = "SyntheticFrameSource";
+    private static final int BAR_WIDTH_DIVISOR = 16;
+
+    private final int width;
+    private final int height;
+    private final int fps;
+    private final ByteBuffer luma;
+    private final ByteBuffer chroma;
+    private final byte[] gradient;
+    private Thread thread;
+    private volatile boolean running;
+
+    public SyntheticFrameSource(int width, int height, int fps) {
+        if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0 || fps <= 0) {
+            throw new IllegalArgumentException("Invalid synthetic source " + width + "x" + height + "@" + fps);
+        }
+        this.width = width;
+        this.height = height;
+        this.fps = fps;
+        this.luma = ByteBuffer.allocateDirect(width * height);
+        this.chroma = ByteBuffer.allocateDirect(width * height / 2);
+        this.gradient = new byte[width * 2];
+        for (int i = 0; i < gradient.length; i++) {
+            gradient[i] = (byte) (16 + (i % width) * 219 / width);
+        }
+    }
+
+    @Override
+    public void start(FrameSink sink) {
+        running = true;
+        thread = new Thread(() -> runLoop(sink), TAG);
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void runLoop(FrameSink sink) {
+        long intervalNanos = 1_000_000_000L / fps;
+        long next = System.nanoTime();
+        long frameIndex = 0;
+        try {
+            while (running) {
+                render(frameIndex++);
+                sink.onFrame(frame(System.nanoTime()));
+                next += intervalNanos;
+                long sleepNanos = next - System.nanoTime();
+                if (sleepNanos > 0) {
+                    Thread.sleep(sleepNanos / 1_000_000L, (int) (sleepNanos % 1_000_000L));
+                } else {
+                    // Fell behind; do not try to catch up with a burst of frames.
+                    next = System.nanoTime();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            StreamLog.e(TAG, "runLoop: Frame sink failed", e);
+        }
+    }
+
+    /** Scrolling diagonal gradient with a white bar sweeping across, and slowly cycling colour. */
+    private void render(long frameIndex) {
+        int shift = (int) (frameIndex % width);
+        int barWidth = Math.max(2, width / BAR_WIDTH_DIVISOR);
+        int barX = (int) ((frameIndex * 4) % (width - barWidth + 1));
+        for (int row = 0; row < height; row++) {
+            luma.position(row * width);
+            luma.put(gradient, (row + shift) % width, width);
+            for (int col = barX; col < barX + barWidth; col++) {
+                luma.put(row * width + col, (byte) 235);
+            }
+        }
+        byte v = (byte) (128 + 64 * Math.sin(frameIndex / 30.0));
+        byte u = (byte) (128 + 64 * Math.cos(frameIndex / 30.0));
+        for (int i = 0; i < chroma.capacity(); i += 2) {
+            chroma.put(i, v);
+            chroma.put(i + 1, u);
+        }
+    }
+
+    private YuvFrame frame(long timestampNanos) {
+        luma.clear();
+        ByteBuffer vPlane = chroma.duplicate();
+        vPlane.limit(chroma.capacity() - 1);
+        ByteBuffer uPlane = chroma.duplicate();
+        uPlane.position(1);
+        return new YuvFrame(width, height, timestampNanos,
+                luma.duplicate(), width, uPlane.slice(), vPlane.slice(), width, 2);
+    }
+}
@@ -0,0 +1,50 @@
+package com.example.ipwebcamapp;
+
+/**
+ * Token bucket for egress shaping: tokens are bytes, refilled at a fixed rate up to a burst
+ * of a quarter second (at least {@value #MIN_BURST_BYTES} bytes, so a rate below one frame
+ * per refill still makes progress). Consuming more than is available leaves the bucket in
+ * debt, which later writes have to pay off first. Owned by the server's event loop.
+ */
+final class TokenBucket {
+    private static final long MIN_BURST_BYTES = 16 * 1024;
+    private static final long MAX_REFILL_NANOS = 60_000_000_000L;
+
+    final long bytesPerSecond;
+    private final long burst;
+    /**
+     * Longest interval refilled at once. Also bounded by the rate, so that neither
+     * {@code elapsed * bytesPerSecond} nor {@code refill * 1e9} can overflow, whatever rate
+     * {@link StreamLimits} was given; a longer gap is simply refilled over several calls.
+     */
+    private final long maxRefillNanos;
+    private long tokens;
+    private long lastRefillNanos;
+
+    TokenBucket(long bytesPerSecond, long nowNanos) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.burst = Math.max(bytesPerSecond / 4, MIN_BURST_BYTES);
+        this.maxRefillNanos = Math.min(MAX_REFILL_NANOS, Long.MAX_VALUE / bytesPerSecond);
+        this.tokens = burst;
+        this.lastRefillNanos = nowNanos;
+    }
+
+    /** Bytes that may be written at {@code nowNanos}; {@code 0} while in debt. */
+    long available(long nowNanos) {
+        long elapsed = Math.min(nowNanos - lastRefillNanos, maxRefillNanos);
+        long refill = elapsed * bytesPerSecond / 1_000_000_000L;
+        if (refill > 0) {
+            tokens = Math.min(burst, tokens + refill);
+            // Advance by the time the refill accounts for, keeping the remainder.
+            lastRefillNanos += refill * 1_000_000_000L / bytesPerSecond;
+        }
+        if (tokens >= burst) {
+            lastRefillNanos = nowNanos;
+        }
+        return Math.max(0, tokens);
+    }
+
+    void consume(long bytes) {
+        tokens -= bytes;
+    }
+}
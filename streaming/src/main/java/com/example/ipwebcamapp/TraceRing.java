@@ -0,0 +1,118 @@
+package com.example.ipwebcamapp;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size, allocation-free ring of pipeline trace events.
+ *
+ * <p>Each event is a handful of primitives written into preallocated arrays, so recording
+ * costs an atomic increment and a few stores instead of string building and a logcat call.
+ * Writers claim slots with a shared ticket counter and publish them by storing the ticket in
+ * a commit array; a dump skips slots that are being overwritten while it reads them. The
+ * event fields are atomic arrays as well: with plain fields, their reads could be reordered
+ * past the dump's second commit check and torn events would slip through. The
+ * ring can be dumped as JSON in the Chrome trace event format
+ * (load it in {@code chrome://tracing} or Perfetto).</p>
+ */
+public final class TraceRing {
+    public static final int STAGE_CAPTURE = 0;
+    public static final int STAGE_CONVERT = 1;
+    public static final int STAGE_ENCODE = 2;
+    public static final int STAGE_SEND = 3;
+    public static final int STAGE_REQUEST = 4;
+    public static final int STAGE_QUEUE = 5;
+
+    private static final String[] STAGE_NAMES = {"capture", "convert", "encode", "send", "request", "queue"};
+    private static final int DEFAULT_CAPACITY = 8192;
+
+    private final int mask;
+    private final AtomicLongArray startNanos;
+    private final AtomicLongArray durationNanos;
+    private final AtomicLongArray sequences;
+    private final AtomicLongArray clientIds;
+    private final AtomicIntegerArray stages;
+    private final AtomicLongArray commits;
+    private final AtomicLong nextTicket = new AtomicLong();
+    private final long originNanos = System.nanoTime();
+
+    public TraceRing() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /** @param capacity number of events kept; rounded up to a power of two */
+    public TraceRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mask = size - 1;
+        startNanos = new AtomicLongArray(size);
+        durationNanos = new AtomicLongArray(size);
+        sequences = new AtomicLongArray(size);
+        clientIds = new AtomicLongArray(size);
+        stages = new AtomicIntegerArray(size);
+        commits = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            commits.set(i, -1);
+        }
+    }
+
+    /**
+     * Records one event.
+     *
+     * @param durationNanos {@code 0} for instant events
+     * @param clientId      {@code 0} for events not tied to a client
+     */
+    public void record(int stage, long startNanos, long durationNanos, long sequence, long clientId) {
+        long ticket = nextTicket.getAndIncrement();
+        int slot = (int) (ticket & mask);
+        commits.set(slot, -1);
+        this.startNanos.set(slot, startNanos);
+        this.durationNanos.set(slot, durationNanos);
+        this.sequences.set(slot, sequence);
+        this.clientIds.set(slot, clientId);
+        this.stages.set(slot, stage);
+        commits.set(slot, ticket);
+    }
+
+    /** Renders the events currently in the ring, oldest first, as a Chrome trace JSON document. */
+    public String toChromeTraceJson() {
+        long end = nextTicket.get();
+        long begin = Math.max(0, end - (mask + 1));
+        StringBuilder out = new StringBuilder(128 + (int) (end - begin) * 120);
+        out.append("{\"displayTimeUnit\":\"ms\",\"traceEvents\":[");
+        boolean first = true;
+        for (long ticket = begin; ticket < end; ticket++) {
+            int slot = (int) (ticket & mask);
+            if (commits.get(slot) != ticket) {
+                continue;
+            }
+            long start = startNanos.get(slot);
+            long duration = durationNanos.get(slot);
+            long sequence = sequences.get(slot);
+            long clientId = clientIds.get(slot);
+            int stage = stages.get(slot);
+            if (commits.get(slot) != ticket) {
+                // Overwritten while we were reading it.
+                continue;
+            }
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            out.append("{\"name\":\"").append(STAGE_NAMES[stage])
+                    .append("\",\"ph\":\"").append(duration > 0 ? "X" : "i")
+                    .append("\",\"ts\":").append((start - originNanos) / 1000.0);
+            if (duration > 0) {
+                out.append(",\"dur\":").append(duration / 1000.0);
+            } else {
+                out.append(",\"s\":\"t\"");
+            }
+            // One lane per stage, and one per client for sends.
+            out.append(",\"pid\":1,\"tid\":").append(stage == STAGE_SEND ? 100 + clientId : stage)
+                    .append(",\"args\":{\"seq\":").append(sequence)
+                    .append(",\"client\":").append(clientId).append("}}");
+        }
+        out.append("]}");
+        return out.toString();
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.ipwebcamapp;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One {@link FramePublisher} per requested {@link StreamVariant}.
+ *
+ * <p>Publishers are created on first request and evicted once nobody has subscribed to them
+ * for {@link #IDLE_EVICTION_MS}, so the encoder only ever works on variants somebody is
+ * actually watching. Listeners registered here are attached to every publisher, including
+ * ones created later. All publishers draw from one sequence source, so a sequence number
+ * identifies a frame even after its variant has been evicted and recreated.</p>
+ */
+public class VariantRegistry {
+    static final long IDLE_EVICTION_MS = 10_000;
+
+    private final Map<StreamVariant, Entry> variants = new HashMap<>();
+    private final CopyOnWriteArrayList<FramePublisher.Listener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    /** Returns the publisher for {@code variant}, creating it if necessary. */
+    public synchronized FramePublisher get(StreamVariant variant) {
+        Entry entry = variants.get(variant);
+        if (entry == null) {
+            entry = new Entry(variant, new FramePublisher(sequence));
+            for (FramePublisher.Listener listener : listeners) {
+                entry.publisher.addListener(listener);
+            }
+            variants.put(variant, entry);
+        }
+        entry.lastUsedMs = System.currentTimeMillis();
+        return entry.publisher;
+    }
+
+    /** Whether any variant currently has a subscriber. */
+    public synchronized boolean hasSubscribers() {
+        for (Entry entry : variants.values()) {
+            if (entry.publisher.hasSubscribers()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Collects the variants that currently have subscribers, together with their publishers,
+     * and evicts the ones that have been idle for too long.
+     */
+    public synchronized void collectActive(List<StreamVariant> variantsOut, List<FramePublisher> publishersOut) {
+        long now = System.currentTimeMillis();
+        Iterator<Entry> it = variants.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.publisher.hasSubscribers()) {
+                entry.lastUsedMs = now;
+                variantsOut.add(entry.variant);
+                publishersOut.add(entry.publisher);
+            } else if (now - entry.lastUsedMs > IDLE_EVICTION_MS) {
+                for (FramePublisher.Listener listener : listeners) {
+                    entry.publisher.removeListener(listener);
+                }
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void addListener(FramePublisher.Listener listener) {
+        listeners.add(listener);
+        for (Entry entry : variants.values()) {
+            entry.publisher.addListener(listener);
+        }
+    }
+
+    public synchronized void removeListener(FramePublisher.Listener listener) {
+        listeners.remove(listener);
+        for (Entry entry : variants.values()) {
+            entry.publisher.removeListener(listener);
+        }
+    }
+
+    private static final class Entry {
+        final StreamVariant variant;
+        final FramePublisher publisher;
+        long lastUsedMs;
+
+        Entry(StreamVariant variant, FramePublisher publisher) {
+            this.variant = variant;
+            this.publisher = publisher;
+        }
+    }
+}
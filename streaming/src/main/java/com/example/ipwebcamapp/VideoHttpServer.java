@@ -0,0 +1,1133 @@
+package com.example.ipwebcamapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Single-threaded, selector driven HTTP server that fans the MJPEG streams of one or more
+ * cameras out to every connected {@code /video} client.
+ *
+ * <p>All sockets are non-blocking and owned by one event loop thread, which is woken by the
+ * cameras' {@link VariantRegistry VariantRegistries} whenever a new frame is published.
+ * Camera {@code N} is served as {@code /video/N} and {@code /snapshot/N}; {@code /video} and
+ * {@code /snapshot} are camera 0. Each client follows the
+ * publisher of the {@link StreamVariant} it asked for via {@code /video?width=..&quality=..};
+ * unless {@code adaptive=0} is given, an {@link AdaptiveRate} moves it to lower qualities
+ * and frame rates while its connection cannot keep up. {@code /ws} (and {@code /ws/N})
+ * serves the same streams as {@link WebSocket} binary messages, paced by the credits the
+ * viewer hands back, and {@code /} serves a {@link ViewerPage} that plays them.
+ * {@code /snapshot} answers with a single JPEG taken from the same cached frames, and
+ * {@code /recordings} lists and serves the segments of the optional {@link SegmentedRecorder}.
+ * {@code /clip?seconds=N} exports the last seconds of the optional {@link PreRollBuffer} as
+ * an AVI; the export runs on a worker thread and is handed back to the event loop to send.
+ * {@code /motion} reports the state and recent events of the optional {@link MotionDetector}.
+ * {@code /metrics} exposes pipeline and per-client statistics in the Prometheus text format,
+ * and {@code /debug/trace} dumps the recent pipeline events as a Chrome trace.
+ * {@link StreamLimits} cap the number of streams, each stream's frame rate, and the egress
+ * per stream and in total; they can be changed while the server runs. Streams over their
+ * byte budget are parked until their {@link TokenBucket} refills, and streams beyond the
+ * maximum are turned away with a {@code 503} before anything is subscribed.
+ * Frames are queued per client and
+ * tracked by sequence number so nobody receives the same frame twice; a client that is still busy
+ * writing an older frame only ever keeps the newest pending one, so slow consumers drop
+ * stale frames instead of building up latency or memory. Each part is sent with a single
+ * gathering write of the shared header, payload and trailer buffers.</p>
+ */
+public class VideoHttpServer {
+    private static final String TAG = "VideoHttpServer";
+    static final String BOUNDARY = "myboundary";
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final int MAX_REQUEST_BYTES = 8192;
+    /** A cached frame older than this is not served as a snapshot; the next one is awaited. */
+    private static final long SNAPSHOT_MAX_AGE_MS = 1000;
+    private static final long SNAPSHOT_WAIT_MS = 5000;
+    private static final long LONG_POLL_WAIT_MS = 15_000;
+    private static final long SNAPSHOT_TICK_MS = 100;
+    private static final int DEFAULT_CLIP_SECONDS = 10;
+    /**
+     * Bounds of the kernel send buffer of stream sockets, which is sized to one part of the
+     * stream (Linux doubles the requested size, so about two frames fit). A slow viewer then
+     * shows backpressure after a frame or two instead of hiding seconds of video in the
+     * socket, where the adaptive rate cannot drop it.
+     */
+    private static final int MIN_SEND_BUFFER_BYTES = 8 * 1024;
+    private static final int MAX_SEND_BUFFER_BYTES = 256 * 1024;
+    /** How often streams parked by the bandwidth limits are retried. */
+    private static final long THROTTLE_TICK_MS = 10;
+    private static final String STREAMS_RETRY_AFTER_SECONDS = "5";
+    /** Frames a WebSocket viewer may have unacknowledged until it asks for another amount. */
+    private static final int DEFAULT_WEBSOCKET_CREDITS = 2;
+    private static final int MAX_WEBSOCKET_CREDITS = 16;
+
+    private static final byte[] STREAM_RESPONSE_HEADER = ("HTTP/1.1 200 OK\r\n"
+            + "Content-Type: multipart/x-mixed-replace; boundary=" + BOUNDARY + "\r\n"
+            + "Cache-Control: no-cache, no-store, must-revalidate\r\n"
+            + "Pragma: no-cache\r\n"
+            + "Connection: close\r\n"
+            + "\r\n").getBytes(ASCII);
+
+    private final int port;
+    /** One registry per camera, indexed by camera number. */
+    private final List<VariantRegistry> cameras;
+    private final PipelineMetrics metrics;
+    private final SegmentedRecorder recorder;
+    /** Source of {@code /clip}; set while running by {@link #setPreRoll}. */
+    private volatile PreRollBuffer preRoll;
+    private final MotionDetector motion;
+    /** Work finished on other threads that has to continue on the event loop. */
+    private final ConcurrentLinkedQueue<Runnable> loopTasks = new ConcurrentLinkedQueue<>();
+    private ExecutorService clipExporter;
+    private final FramePublisher.Listener frameListener = frame -> wakeup();
+    private final List<Client> clients = new ArrayList<>();
+    private final List<Client> snapshotWaiters = new ArrayList<>();
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread loopThread;
+    private volatile boolean running;
+    private volatile StreamLimits limits = StreamLimits.NONE;
+    private TokenBucket totalBucket;
+    /** Each stream's part of the total budget, fixed per dispatch round. */
+    private long totalShare = Long.MAX_VALUE;
+    private long nextClientId;
+    private long streamsRejected;
+
+    public VideoHttpServer(int port, VariantRegistry variants, PipelineMetrics metrics) {
+        this(port, Collections.singletonList(variants), metrics, null, null, null);
+    }
+
+    public VideoHttpServer(int port, VariantRegistry variants, PipelineMetrics metrics,
+                           SegmentedRecorder recorder, PreRollBuffer preRoll, MotionDetector motion) {
+        this(port, Collections.singletonList(variants), metrics, recorder, preRoll, motion);
+    }
+
+    /**
+     * @param cameras  one registry per camera, served as {@code /video/<index>}
+     * @param recorder source of {@code /recordings}, or {@code null} to disable the route
+     * @param preRoll  source of {@code /clip}, or {@code null} to disable the route
+     * @param motion   source of {@code /motion}, or {@code null} to disable the route
+     */
+    public VideoHttpServer(int port, List<VariantRegistry> cameras, PipelineMetrics metrics,
+                           SegmentedRecorder recorder, PreRollBuffer preRoll, MotionDetector motion) {
+        this.port = port;
+        this.cameras = new ArrayList<>(cameras);
+        this.metrics = metrics;
+        this.recorder = recorder;
+        this.preRoll = preRoll;
+        this.motion = motion;
+        StreamLog.d(TAG, "VideoHttpServer: Server initialized on port " + port);
+    }
+
+    public void start() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.configureBlocking(false);
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(port));
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        StreamLog.d(TAG, "start: Server channel bound and server started on port " + port);
+
+        clipExporter = Executors.newSingleThreadExecutor(task -> new Thread(task, "ClipExporter"));
+        loopThread = new Thread(this::runEventLoop, TAG);
+        loopThread.start();
+        for (VariantRegistry camera : cameras) {
+            camera.addListener(frameListener);
+        }
+    }
+
+    /** Port the server listens on; a server created with port {@code 0} reports the one it got. */
+    public int getPort() {
+        ServerSocketChannel channel = serverChannel;
+        return channel == null ? port : channel.socket().getLocalPort();
+    }
+
+    public void stop() {
+        running = false;
+        StreamLog.d(TAG, "stop: Stopping server...");
+        for (VariantRegistry camera : cameras) {
+            camera.removeListener(frameListener);
+        }
+        wakeup();
+        if (loopThread != null) {
+            try {
+                loopThread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /** Applies new limits; existing streams follow them from their next frame on. */
+    public void setLimits(StreamLimits limits) {
+        this.limits = limits;
+        StreamLog.d(TAG, "setLimits: " + limits);
+        wakeup();
+    }
+
+    /**
+     * Enables {@code /clip} with {@code preRoll} as its source, or disables it for
+     * {@code null}, without touching connected streams. Exports already running finish
+     * with the buffer they started with.
+     */
+    public void setPreRoll(PreRollBuffer preRoll) {
+        this.preRoll = preRoll;
+        StreamLog.d(TAG, "setPreRoll: /clip " + (preRoll == null ? "disabled" : "enabled"));
+    }
+
+    /** Publishes a JPEG to every client of the default variant of camera 0. */
+    public void broadcastVideoData(byte[] videoData) {
+        if (videoData != null) {
+            cameras.get(0).get(StreamVariant.DEFAULT).publish(videoData);
+        }
+    }
+
+    private void wakeup() {
+        Selector activeSelector = selector;
+        if (activeSelector != null) {
+            activeSelector.wakeup();
+        }
+    }
+
+    private void runEventLoop() {
+        try {
+            while (running) {
+                selector.select(selectTimeoutMs());
+                if (!running) {
+                    break;
+                }
+                runLoopTasks();
+                dispatchFrames();
+                dispatchSnapshots();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        if (key.isAcceptable()) {
+                            acceptClient();
+                        } else {
+                            Client client = (Client) key.attachment();
+                            if (key.isReadable()) {
+                                readRequest(client);
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                flush(client);
+                            }
+                        }
+                    } catch (IOException e) {
+                        Object attachment = key.attachment();
+                        if (attachment instanceof Client) {
+                            closeClient((Client) attachment);
+                        } else {
+                            StreamLog.e(TAG, "runEventLoop: IOException while accepting client connection", e);
+                        }
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            StreamLog.e(TAG, "runEventLoop: Event loop terminated", e);
+        } finally {
+            shutdown();
+        }
+    }
+
+    /** Throttled streams and waiting snapshots need a periodic wakeup; otherwise sleep until woken. */
+    private long selectTimeoutMs() {
+        for (int i = 0; i < clients.size(); i++) {
+            if (clients.get(i).throttled) {
+                return THROTTLE_TICK_MS;
+            }
+        }
+        return snapshotWaiters.isEmpty() ? 0 : SNAPSHOT_TICK_MS;
+    }
+
+    private void acceptClient() throws IOException {
+        SocketChannel channel = serverChannel.accept();
+        if (channel == null) {
+            return;
+        }
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Client client = new Client(++nextClientId, channel, metrics);
+        client.key = channel.register(selector, SelectionKey.OP_READ, client);
+    }
+
+    private void readRequest(Client client) throws IOException {
+        if (client.webSocket) {
+            readWebSocket(client);
+            return;
+        }
+        int read = client.channel.read(client.request);
+        if (read < 0) {
+            closeClient(client);
+            return;
+        }
+        String head = parseRequestHead(client.request);
+        if (head == null) {
+            if (!client.request.hasRemaining()) {
+                closeClient(client);
+            }
+            return;
+        }
+
+        // Requests are answered once; further input from the client is ignored.
+        client.key.interestOps(0);
+        metrics.trace().record(TraceRing.STAGE_REQUEST, System.nanoTime(), 0, 0, client.id);
+        String[] lines = head.split("\r\n");
+        String[] parts = lines[0].split(" ");
+        String uri = parts.length > 1 ? parts[1] : "/";
+        int query = uri.indexOf('?');
+        String path = query >= 0 ? uri.substring(0, query) : uri;
+        Map<String, String> params = parseQuery(query >= 0 ? uri.substring(query + 1) : "");
+
+        PreRollBuffer clips = preRoll;
+        int camera;
+        if ((camera = cameraIndex(path, "/video")) >= 0) {
+            startStream(client, camera, params, null);
+        } else if ((camera = cameraIndex(path, "/ws")) >= 0) {
+            Map<String, String> headers = parseHeaders(lines);
+            String key = headers.get("sec-websocket-key");
+            if (key == null || !"websocket".equalsIgnoreCase(headers.get("upgrade"))) {
+                client.closeAfterWrite = true;
+                client.stream.enqueue(ByteBuffer.wrap(response("426 Upgrade Required", "text/plain",
+                        "Expected a WebSocket upgrade".getBytes(ASCII), "Upgrade: websocket\r\n")));
+            } else {
+                startStream(client, camera, params, key);
+                if (client.webSocket) {
+                    // Keep whatever the viewer sent after the handshake for the frame parser.
+                    client.request.flip();
+                    client.request.position(head.length() + 4);
+                    client.request.compact();
+                    flush(client);
+                    processWebSocketInput(client);
+                    return;
+                }
+            }
+        } else if ((camera = cameraIndex(path, "/snapshot")) >= 0) {
+            startSnapshot(client, camera, params, parseHeaders(lines));
+            return;
+        } else if ("/".equals(path)) {
+            client.closeAfterWrite = true;
+            client.stream.enqueue(ByteBuffer.wrap(response("200 OK", "text/html; charset=utf-8",
+                    ViewerPage.html(cameras.size()).getBytes(ASCII))));
+        } else if (path.startsWith("/video/") || path.startsWith("/ws/") || path.startsWith("/snapshot/")) {
+            client.closeAfterWrite = true;
+            client.stream.enqueue(ByteBuffer.wrap(textResponse("404 Not Found", "No such camera")));
+        } else if (recorder != null && "/recordings".equals(path)) {
+            client.closeAfterWrite = true;
+            client.stream.enqueue(ByteBuffer.wrap(response("200 OK", "application/json",
+                    renderRecordings().getBytes(ASCII))));
+        } else if (recorder != null && path.startsWith("/recordings/")) {
+            client.closeAfterWrite = true;
+            sendRecording(client, path.substring("/recordings/".length()));
+        } else if (clips != null && "/clip".equals(path)) {
+            startClipExport(client, params, clips);
+            return;
+        } else if (motion != null && "/motion".equals(path)) {
+            client.closeAfterWrite = true;
+            client.stream.enqueue(ByteBuffer.wrap(response("200 OK", "application/json",
+                    motion.toJson().getBytes(ASCII))));
+        } else if ("/metrics".equals(path)) {
+            client.closeAfterWrite = true;
+            client.stream.enqueue(ByteBuffer.wrap(response("200 OK",
+                    "text/plain; version=0.0.4; charset=utf-8", renderMetrics().getBytes(ASCII))));
+        } else if ("/debug/trace".equals(path)) {
+            client.closeAfterWrite = true;
+            client.stream.enqueue(ByteBuffer.wrap(response("200 OK", "application/json",
+                    metrics.trace().toChromeTraceJson().getBytes(ASCII))));
+        } else {
+            client.closeAfterWrite = true;
+            client.stream.enqueue(ByteBuffer.wrap(textResponse("200 OK", "IP Webcam Running!")));
+        }
+        flush(client);
+    }
+
+    /**
+     * Subscribes {@code client} to a stream of {@code camera}, or queues the error response
+     * if the request is invalid or the stream limit is reached.
+     *
+     * @param webSocketKey key of a WebSocket upgrade, {@code null} for a multipart stream
+     */
+    private void startStream(Client client, int camera, Map<String, String> params,
+                             String webSocketKey) throws IOException {
+        StreamVariant variant;
+        int credits;
+        try {
+            variant = StreamVariant.fromQuery(params);
+            credits = webSocketKey != null && params.containsKey("credits")
+                    ? parseCredits(params.get("credits")) : DEFAULT_WEBSOCKET_CREDITS;
+        } catch (IllegalArgumentException e) {
+            client.closeAfterWrite = true;
+            client.stream.enqueue(ByteBuffer.wrap(textResponse("400 Bad Request", e.getMessage())));
+            return;
+        }
+        int maxStreams = limits.maxStreams;
+        if (maxStreams > 0 && clients.size() >= maxStreams) {
+            // Turned away before subscribing, so an overloaded server stays cheap to refuse.
+            streamsRejected++;
+            client.closeAfterWrite = true;
+            client.stream.enqueue(ByteBuffer.wrap(response("503 Service Unavailable", "text/plain",
+                    ("Stream limit of " + maxStreams + " reached").getBytes(ASCII),
+                    "Retry-After: " + STREAMS_RETRY_AFTER_SECONDS + "\r\n")));
+            return;
+        }
+        fitSendBuffer(client, 0);
+        client.camera = cameras.get(camera);
+        client.cameraIndex = camera;
+        client.source = client.camera.get(variant);
+        client.source.addSubscriber();
+        clients.add(client);
+        client.streaming = true;
+        client.variant = variant;
+        if (!"0".equals(params.get("adaptive")) && !"false".equals(params.get("adaptive"))) {
+            client.rate = new AdaptiveRate(variant, System.nanoTime());
+        }
+        if (webSocketKey != null) {
+            client.webSocket = true;
+            client.credits = credits;
+            client.stream.useWebSocketFraming();
+            client.stream.enqueue(ByteBuffer.wrap(WebSocket.handshakeResponse(webSocketKey)));
+        } else {
+            client.stream.enqueue(ByteBuffer.wrap(STREAM_RESPONSE_HEADER));
+        }
+        // Start the new viewer with the current frame instead of waiting for the next one.
+        offerLatest(client, System.nanoTime());
+    }
+
+    private static int parseCredits(String value) {
+        try {
+            int credits = Integer.parseInt(value);
+            if (credits >= 1 && credits <= MAX_WEBSOCKET_CREDITS) {
+                return credits;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below like an out-of-range value.
+        }
+        throw new IllegalArgumentException("Expected credits=1.." + MAX_WEBSOCKET_CREDITS);
+    }
+
+    private void readWebSocket(Client client) throws IOException {
+        int read = client.channel.read(client.request);
+        if (read < 0) {
+            closeClient(client);
+            return;
+        }
+        processWebSocketInput(client);
+    }
+
+    /** Handles every complete message in the client's input buffer. */
+    private void processWebSocketInput(Client client) throws IOException {
+        ByteBuffer input = client.request;
+        input.flip();
+        try {
+            WebSocket.Frame frame;
+            while (!client.closeAfterWrite && (frame = WebSocket.Frame.read(input)) != null) {
+                handleWebSocketFrame(client, frame);
+            }
+        } catch (IOException e) {
+            StreamLog.w(TAG, "processWebSocketInput: Client " + client.id + ": " + e.getMessage());
+            closeWebSocket(client, WebSocket.CLOSE_PROTOCOL_ERROR);
+        } finally {
+            input.compact();
+        }
+    }
+
+    private void handleWebSocketFrame(Client client, WebSocket.Frame frame) throws IOException {
+        switch (frame.opcode) {
+            case WebSocket.OPCODE_TEXT:
+            case WebSocket.OPCODE_BINARY:
+                if (!frame.fin) {
+                    throw new IOException("Fragmented messages are not supported");
+                }
+                handleWebSocketMessage(client, frame.text().trim());
+                break;
+            case WebSocket.OPCODE_PING:
+                client.stream.enqueue(ByteBuffer.wrap(WebSocket.frame(WebSocket.OPCODE_PONG, frame.payload)));
+                flush(client);
+                break;
+            case WebSocket.OPCODE_PONG:
+                break;
+            case WebSocket.OPCODE_CLOSE:
+                closeWebSocket(client, WebSocket.CLOSE_NORMAL);
+                break;
+            default:
+                throw new IOException("Unexpected opcode " + frame.opcode);
+        }
+    }
+
+    /** {@code ack <seq>} returns a credit, {@code credits <n>} resizes the window; others are ignored. */
+    private void handleWebSocketMessage(Client client, String message) throws IOException {
+        int space = message.indexOf(' ');
+        String command = space < 0 ? message : message.substring(0, space);
+        String argument = space < 0 ? "" : message.substring(space + 1).trim();
+        try {
+            if ("ack".equals(command)) {
+                // Acks for frames that were never sent cannot buy extra frames.
+                long sequence = parseSequence(argument);
+                if (sequence <= client.stream.lastSentCaptureSequence()
+                        && client.framesAcked < client.stream.framesStarted()) {
+                    client.framesAcked++;
+                }
+            } else if ("credits".equals(command)) {
+                client.credits = parseCredits(argument);
+            } else {
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            StreamLog.w(TAG, "handleWebSocketMessage: Client " + client.id + ": " + e.getMessage());
+            return;
+        }
+        offerLatest(client, System.nanoTime());
+        flush(client);
+    }
+
+    /** Answers or starts the closing handshake; no further frames are sent. */
+    private void closeWebSocket(Client client, int status) throws IOException {
+        if (clients.remove(client)) {
+            client.source.removeSubscriber();
+        }
+        // The close message must not be held back by the bandwidth limits.
+        client.streaming = false;
+        client.throttled = false;
+        client.closeAfterWrite = true;
+        client.stream.discardPendingFrame();
+        client.stream.enqueue(ByteBuffer.wrap(WebSocket.closeFrame(status)));
+        flush(client);
+    }
+
+    /**
+     * Returns the camera addressed by {@code path}: {@code 0} for {@code route} itself,
+     * {@code N} for {@code route/N}, and {@code -1} if the path is neither or names no camera.
+     */
+    private int cameraIndex(String path, String route) {
+        if (path.equals(route)) {
+            return 0;
+        }
+        if (!path.startsWith(route + "/")) {
+            return -1;
+        }
+        String index = path.substring(route.length() + 1);
+        if (index.isEmpty() || index.length() > 3) {
+            return -1;
+        }
+        for (int i = 0; i < index.length(); i++) {
+            if (index.charAt(i) < '0' || index.charAt(i) > '9') {
+                return -1;
+            }
+        }
+        int camera = Integer.parseInt(index);
+        return camera < cameras.size() ? camera : -1;
+    }
+
+    private void startSnapshot(Client client, int camera, Map<String, String> params,
+                               Map<String, String> headers) throws IOException {
+        StreamVariant variant;
+        long after;
+        try {
+            variant = StreamVariant.fromQuery(params);
+            after = params.containsKey("after") ? parseSequence(params.get("after")) : -1;
+        } catch (IllegalArgumentException e) {
+            client.closeAfterWrite = true;
+            client.stream.enqueue(ByteBuffer.wrap(textResponse("400 Bad Request", e.getMessage())));
+            flush(client);
+            return;
+        }
+        client.closeAfterWrite = true;
+        client.camera = cameras.get(camera);
+        client.cameraIndex = camera;
+        client.source = client.camera.get(variant);
+        client.variant = variant;
+        client.snapshotAfter = after;
+        client.ifNoneMatch = headers.get("if-none-match");
+        if (isSnapshotReady(client)) {
+            sendSnapshot(client, client.source.latest());
+            return;
+        }
+        // Subscribing makes the encoder produce the variant even if nobody is streaming it.
+        client.source.addSubscriber();
+        client.snapshotDeadlineNanos = System.nanoTime()
+                + (after >= 0 ? LONG_POLL_WAIT_MS : SNAPSHOT_WAIT_MS) * 1_000_000L;
+        snapshotWaiters.add(client);
+    }
+
+    private static long parseSequence(String value) {
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number: " + value, e);
+        }
+    }
+
+    private static boolean isSnapshotReady(Client client) {
+        MjpegFrame frame = client.source.latest();
+        return frame != null && frame.sequence() > client.snapshotAfter
+                && client.source.latestAgeMs() <= SNAPSHOT_MAX_AGE_MS;
+    }
+
+    private void dispatchSnapshots() {
+        long now = System.nanoTime();
+        for (int i = snapshotWaiters.size() - 1; i >= 0; i--) {
+            Client client = snapshotWaiters.get(i);
+            boolean ready = isSnapshotReady(client);
+            if (!ready && now - client.snapshotDeadlineNanos < 0) {
+                continue;
+            }
+            snapshotWaiters.remove(i);
+            client.source.removeSubscriber();
+            MjpegFrame frame = client.source.latest();
+            try {
+                if (ready || (client.snapshotAfter < 0 && frame != null)) {
+                    // Out of time without a fresh frame: a stale picture beats none.
+                    sendSnapshot(client, frame);
+                } else if (frame != null) {
+                    // Long-poll timed out: nothing newer than the caller's frame.
+                    client.stream.enqueue(ByteBuffer.wrap(snapshotHeader("304 Not Modified", frame, false)));
+                    flush(client);
+                } else {
+                    client.stream.enqueue(ByteBuffer.wrap(response("503 Service Unavailable", "text/plain",
+                            "No frame available".getBytes(ASCII), "Retry-After: 1\r\n")));
+                    flush(client);
+                }
+            } catch (IOException e) {
+                closeClient(client);
+            }
+        }
+    }
+
+    /** Sends {@code frame} as a fixed-length JPEG, or {@code 304} if the client already has it. */
+    private void sendSnapshot(Client client, MjpegFrame frame) throws IOException {
+        if (matchesEtag(client.ifNoneMatch, etag(frame))) {
+            client.stream.enqueue(ByteBuffer.wrap(snapshotHeader("304 Not Modified", frame, false)));
+        } else {
+            client.stream.enqueue(ByteBuffer.wrap(snapshotHeader("200 OK", frame, true)));
+            // The payload is the shared read-only buffer of the frame, no copy is made.
+            client.stream.enqueue(frame.jpeg());
+        }
+        flush(client);
+    }
+
+    private static String etag(MjpegFrame frame) {
+        return "\"" + frame.sequence() + "\"";
+    }
+
+    /** Evaluates an {@code If-None-Match} value, which may list several (weak) tags. */
+    private static boolean matchesEtag(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        for (String tag : ifNoneMatch.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals(etag) || tag.equals("*")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] snapshotHeader(String status, MjpegFrame frame, boolean withBody) {
+        StringBuilder header = new StringBuilder(160).append("HTTP/1.1 ").append(status).append("\r\n");
+        if (withBody) {
+            header.append("Content-Type: image/jpeg\r\n")
+                    .append("Content-Length: ").append(frame.jpegLength()).append("\r\n");
+        }
+        return header.append("ETag: ").append(etag(frame)).append("\r\n")
+                .append("Cache-Control: no-cache\r\n")
+                .append("Connection: close\r\n")
+                .append("\r\n").toString().getBytes(ASCII);
+    }
+
+    private String renderRecordings() {
+        StringBuilder out = new StringBuilder(256).append('[');
+        List<File> files = recorder.recordings();
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+            if (i > 0) {
+                out.append(',');
+            }
+            // Names are generated by the recorder and never need JSON escaping.
+            out.append("{\"name\":\"").append(file.getName())
+                    .append("\",\"size\":").append(file.length())
+                    .append(",\"modified\":").append(file.lastModified())
+                    .append(",\"url\":\"/recordings/").append(file.getName()).append("\"}");
+        }
+        return out.append(']').toString();
+    }
+
+    private void startClipExport(Client client, Map<String, String> params, PreRollBuffer preRoll)
+            throws IOException {
+        client.closeAfterWrite = true;
+        String value = params.get("seconds");
+        int requested;
+        try {
+            requested = value == null ? DEFAULT_CLIP_SECONDS : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            client.stream.enqueue(ByteBuffer.wrap(textResponse("400 Bad Request",
+                    "Expected seconds=1.." + preRoll.maxSeconds())));
+            flush(client);
+            return;
+        }
+        int seconds = Math.max(1, Math.min(preRoll.maxSeconds(), requested));
+        clipExporter.execute(() -> {
+            File file = null;
+            int frames = 0;
+            try {
+                file = File.createTempFile("clip", SegmentedRecorder.EXTENSION);
+                frames = preRoll.exportAvi(file, seconds);
+            } catch (IOException e) {
+                StreamLog.e(TAG, "startClipExport: Export failed", e);
+            }
+            File clip = frames > 0 ? file : null;
+            File written = file;
+            loopTasks.add(() -> sendClip(client, clip, written));
+            wakeup();
+            if (!running && written != null && written.delete()) {
+                // The loop is gone and will not send or delete the clip.
+                StreamLog.d(TAG, "startClipExport: Discarded clip after shutdown");
+            }
+        });
+    }
+
+    /** Runs on the event loop once an export has finished; {@code clip} is {@code null} if it failed. */
+    private void sendClip(Client client, File clip, File tempFile) {
+        try {
+            if (!client.channel.isOpen()) {
+                return;
+            }
+            if (clip == null) {
+                client.stream.enqueue(ByteBuffer.wrap(textResponse("404 Not Found", "No frames buffered")));
+            } else {
+                sendFile(client, clip, "clip-" + System.currentTimeMillis() + SegmentedRecorder.EXTENSION);
+            }
+            flush(client);
+        } catch (IOException e) {
+            closeClient(client);
+        } finally {
+            // The mapping keeps the data readable after the file is unlinked.
+            if (tempFile != null && !tempFile.delete()) {
+                StreamLog.w(TAG, "sendClip: Could not delete " + tempFile);
+            }
+        }
+    }
+
+    private void runLoopTasks() {
+        Runnable task;
+        while ((task = loopTasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    /** Serves a finished segment from a read-only mapping, so it is never copied onto the heap. */
+    private void sendRecording(Client client, String name) {
+        // Only names from the recorder's own listing are served, which rules out path traversal.
+        File file = recorder.recording(name);
+        if (file == null) {
+            client.stream.enqueue(ByteBuffer.wrap(textResponse("404 Not Found", "No such recording")));
+            return;
+        }
+        try {
+            sendFile(client, file, file.getName());
+        } catch (IOException e) {
+            // Retention may have deleted the file after it was listed.
+            StreamLog.e(TAG, "sendRecording: Cannot read " + file, e);
+            client.stream.enqueue(ByteBuffer.wrap(textResponse("404 Not Found", "No such recording")));
+        }
+    }
+
+    /** Queues an AVI file as a download from a read-only mapping. */
+    private static void sendFile(Client client, File file, String downloadName) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            ByteBuffer content = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+            String header = "HTTP/1.1 200 OK\r\n"
+                    + "Content-Type: video/x-msvideo\r\n"
+                    + "Content-Length: " + content.remaining() + "\r\n"
+                    + "Content-Disposition: attachment; filename=\"" + downloadName + "\"\r\n"
+                    + "Connection: close\r\n"
+                    + "\r\n";
+            client.stream.enqueue(ByteBuffer.wrap(header.getBytes(ASCII)));
+            client.stream.enqueue(content);
+        }
+    }
+
+    /**
+     * Returns the request line and headers once the full header block has been received,
+     * or {@code null} while more bytes are still expected.
+     */
+    private static String parseRequestHead(ByteBuffer request) {
+        int end = request.position();
+        for (int i = 3; i < end; i++) {
+            if (request.get(i - 3) == '\r' && request.get(i - 2) == '\n'
+                    && request.get(i - 1) == '\r' && request.get(i) == '\n') {
+                byte[] head = new byte[i - 3];
+                for (int j = 0; j < head.length; j++) {
+                    head[j] = request.get(j);
+                }
+                return new String(head, ASCII);
+            }
+        }
+        return null;
+    }
+
+    /** Header names are lower-cased; {@code lines[0]} is the request line and is skipped. */
+    private static Map<String, String> parseHeaders(String[] lines) {
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                        lines[i].substring(colon + 1).trim());
+            }
+        }
+        return headers;
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        Map<String, String> params = new HashMap<>();
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int eq = pair.indexOf('=');
+            if (eq < 0) {
+                params.put(pair, "");
+            } else {
+                params.put(pair.substring(0, eq), pair.substring(eq + 1));
+            }
+        }
+        return params;
+    }
+
+    private static byte[] textResponse(String status, String body) {
+        return response(status, "text/plain", body.getBytes(ASCII));
+    }
+
+    private static byte[] response(String status, String contentType, byte[] content) {
+        return response(status, contentType, content, "");
+    }
+
+    /** @param extraHeaders complete header lines, each terminated by CRLF */
+    private static byte[] response(String status, String contentType, byte[] content, String extraHeaders) {
+        String header = "HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: " + contentType + "\r\n"
+                + "Content-Length: " + content.length + "\r\n"
+                + extraHeaders
+                + "Connection: close\r\n"
+                + "\r\n";
+        byte[] head = header.getBytes(ASCII);
+        byte[] response = new byte[head.length + content.length];
+        System.arraycopy(head, 0, response, 0, head.length);
+        System.arraycopy(content, 0, response, head.length, content.length);
+        return response;
+    }
+
+    /** Runs on the event loop, which owns every client's counters. */
+    private String renderMetrics() {
+        StringBuilder out = new StringBuilder(4096);
+        metrics.writePrometheus(out);
+        if (recorder != null) {
+            recorder.writePrometheus(out);
+        }
+        if (motion != null) {
+            motion.writePrometheus(out);
+        }
+        PipelineMetrics.gauge(out, "ipwebcam_active_clients", "Connected streaming clients.", clients.size());
+        PipelineMetrics.counter(out, "ipwebcam_streams_rejected_total",
+                "Stream requests refused because the stream limit was reached.", streamsRejected);
+        writeClientMetric(out, "ipwebcam_client_frames_sent_total", "counter",
+                "Frames fully written to the client.", client -> client.stream.framesSent());
+        writeClientMetric(out, "ipwebcam_client_frames_dropped_total", "counter",
+                "Frames skipped because the client was still busy.", client -> client.stream.framesDropped());
+        writeClientMetric(out, "ipwebcam_client_bytes_sent_total", "counter",
+                "Bytes written to the client.", client -> client.stream.bytesSent());
+        writeClientMetric(out, "ipwebcam_client_queue_depth", "gauge",
+                "Buffers and frames waiting to be written.", client -> client.stream.queueDepth());
+        writeClientMetric(out, "ipwebcam_client_current_quality", "gauge",
+                "JPEG quality currently sent to the client after adaptation.", client -> client.currentQuality());
+        writeClientMetric(out, "ipwebcam_client_max_fps", "gauge",
+                "Frame rate cap of the client after adaptation and limits, 0 if uncapped.",
+                client -> maxFps(client));
+        writeClientMetric(out, "ipwebcam_client_throttled", "gauge",
+                "Whether the client is waiting for bandwidth budget.", client -> client.throttled ? 1 : 0);
+        writeClientMetric(out, "ipwebcam_client_unacked_frames", "gauge",
+                "Frames sent to a WebSocket viewer and not acknowledged yet, 0 for multipart streams.",
+                client -> client.webSocket ? client.stream.framesStarted() - client.framesAcked : 0);
+        writeClientSeconds(out, "ipwebcam_client_send_queue_seconds",
+                "Smoothed time frames waited for the client before it was ready to take them.",
+                client -> client.stream.queueNanos());
+        writeClientSeconds(out, "ipwebcam_client_frame_latency_seconds",
+                "Smoothed time from capture until a frame was fully written to the client.",
+                client -> client.stream.latencyNanos());
+        return out.toString();
+    }
+
+    private interface ClientStat {
+        long value(Client client);
+    }
+
+    private void writeClientMetric(StringBuilder out, String name, String type, String help, ClientStat stat) {
+        writeClientMetric(out, name, type, help, stat, 1);
+    }
+
+    /** Writes a gauge of durations that {@code stat} returns in nanoseconds. */
+    private void writeClientSeconds(StringBuilder out, String name, String help, ClientStat stat) {
+        writeClientMetric(out, name, "gauge", help, stat, 1e9);
+    }
+
+    private void writeClientMetric(StringBuilder out, String name, String type, String help, ClientStat stat,
+                                   double scale) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        for (Client client : clients) {
+            out.append(name)
+                    .append("{client=\"").append(client.id)
+                    .append("\",camera=\"").append(client.cameraIndex)
+                    .append("\",remote=\"").append(client.channel.socket().getInetAddress().getHostAddress())
+                    .append("\",width=\"").append(client.variant.width)
+                    .append("\",quality=\"").append(client.variant.quality)
+                    .append("\"} ");
+            if (scale == 1) {
+                out.append(stat.value(client));
+            } else {
+                out.append(stat.value(client) / scale);
+            }
+            out.append('\n');
+        }
+    }
+
+    private void dispatchFrames() {
+        long now = System.nanoTime();
+        updateTotalShare(now);
+        for (int i = clients.size() - 1; i >= 0; i--) {
+            Client client = clients.get(i);
+            if (client.rate != null && client.rate.update(client.stream, now)) {
+                // Clients on the same step share the step's variant and its encode.
+                client.source.removeSubscriber();
+                client.source = client.camera.get(client.rate.variant());
+                client.source.addSubscriber();
+            }
+            offerLatest(client, now);
+            try {
+                flush(client);
+            } catch (IOException e) {
+                closeClient(client);
+            }
+        }
+    }
+
+    /** Only the most recent frame matters if several arrived between wakeups. */
+    private void offerLatest(Client client, long nowNanos) {
+        MjpegFrame frame = client.source.latest();
+        if (frame == null || frame.sequence() <= client.lastOfferedSequence) {
+            return;
+        }
+        if (client.webSocket && client.stream.framesStarted() - client.framesAcked >= client.credits) {
+            // Out of credits; a frame not started yet may still be replaced by this newer one.
+            return;
+        }
+        int fps = maxFps(client);
+        if (fps > 0 && client.admittedAny && nowNanos - client.lastAdmittedNanos < 1_000_000_000L / fps) {
+            return;
+        }
+        client.lastAdmittedNanos = nowNanos;
+        client.admittedAny = true;
+        client.lastOfferedSequence = frame.sequence();
+        client.stream.offerFrame(frame);
+        fitSendBuffer(client, frame.partLength());
+    }
+
+    /** Resizes the socket's send buffer to {@code partBytes} once it is off by more than a quarter. */
+    private static void fitSendBuffer(Client client, int partBytes) {
+        int wanted = Math.max(MIN_SEND_BUFFER_BYTES, Math.min(MAX_SEND_BUFFER_BYTES, partBytes));
+        int current = client.sendBufferBytes;
+        if (current != 0 && Math.abs(wanted - current) * 4 <= current) {
+            return;
+        }
+        try {
+            client.channel.socket().setSendBufferSize(wanted);
+            client.sendBufferBytes = wanted;
+        } catch (SocketException e) {
+            StreamLog.w(TAG, "fitSendBuffer: Could not resize the send buffer: " + e.getMessage());
+        }
+    }
+
+    /** The lower of the configured and the adaptive frame rate cap; {@code 0} if neither applies. */
+    private int maxFps(Client client) {
+        int configured = limits.maxClientFps;
+        int adaptive = client.rate == null ? 0 : client.rate.maxFps();
+        if (configured == 0 || adaptive == 0) {
+            return Math.max(configured, adaptive);
+        }
+        return Math.min(configured, adaptive);
+    }
+
+    private void flush(Client client) throws IOException {
+        long budget = egressBudget(client);
+        long before = client.stream.bytesSent();
+        boolean done = client.stream.write(budget);
+        long written = client.stream.bytesSent() - before;
+        if (client.bucket != null) {
+            client.bucket.consume(written);
+        }
+        if (totalBucket != null) {
+            totalBucket.consume(written);
+        }
+        client.throttled = !done && written >= budget;
+        if (!done) {
+            // Either the socket buffer is full and the selector reports when it drains, or the
+            // byte budget ran out and the next throttle tick retries the stream.
+            client.key.interestOps(client.readInterest() | (client.throttled ? 0 : SelectionKey.OP_WRITE));
+            return;
+        }
+        if (client.closeAfterWrite) {
+            closeClient(client);
+        } else if (client.key.isValid()) {
+            client.key.interestOps(client.readInterest());
+        }
+    }
+
+    /**
+     * Splits the total budget evenly between the streams, so the first ones flushed in a
+     * round cannot take all of it.
+     */
+    private void updateTotalShare(long nowNanos) {
+        long total = limits.totalBytesPerSecond;
+        if (total == 0) {
+            totalBucket = null;
+            totalShare = Long.MAX_VALUE;
+            return;
+        }
+        if (totalBucket == null || totalBucket.bytesPerSecond != total) {
+            totalBucket = new TokenBucket(total, nowNanos);
+        }
+        totalShare = totalBucket.available(nowNanos) / Math.max(1, clients.size());
+    }
+
+    /**
+     * Bytes {@code client} may write now. Responses other than streams are never held back
+     * but still count against the total.
+     */
+    private long egressBudget(Client client) {
+        StreamLimits current = limits;
+        if (!client.streaming) {
+            return Long.MAX_VALUE;
+        }
+        long now = System.nanoTime();
+        long budget = totalBucket == null ? Long.MAX_VALUE : Math.min(totalShare, totalBucket.available(now));
+        if (current.clientBytesPerSecond == 0) {
+            client.bucket = null;
+            return budget;
+        }
+        if (client.bucket == null || client.bucket.bytesPerSecond != current.clientBytesPerSecond) {
+            client.bucket = new TokenBucket(current.clientBytesPerSecond, now);
+        }
+        return Math.min(budget, client.bucket.available(now));
+    }
+
+    private void closeClient(Client client) {
+        if (clients.remove(client) || snapshotWaiters.remove(client)) {
+            client.source.removeSubscriber();
+        }
+        if (client.key != null) {
+            client.key.cancel();
+        }
+        try {
+            client.channel.close();
+        } catch (IOException e) {
+            StreamLog.e(TAG, "closeClient: IOException while closing client socket", e);
+        }
+    }
+
+    private void shutdown() {
+        clipExporter.shutdownNow();
+        for (int i = clients.size() - 1; i >= 0; i--) {
+            closeClient(clients.get(i));
+        }
+        try {
+            if (selector != null) {
+                for (SelectionKey key : selector.keys()) {
+                    key.channel().close();
+                }
+                selector.close();
+            }
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+            StreamLog.d(TAG, "shutdown: Server channel closed");
+        } catch (IOException e) {
+            StreamLog.e(TAG, "shutdown: IOException while closing server channel", e);
+        }
+    }
+
+    private static final class Client {
+        final long id;
+        final SocketChannel channel;
+        final ByteBuffer request = ByteBuffer.allocate(MAX_REQUEST_BYTES);
+        final StreamClient stream;
+        SelectionKey key;
+        VariantRegistry camera;
+        int cameraIndex;
+        FramePublisher source;
+        StreamVariant variant;
+        boolean closeAfterWrite;
+        /** Whether this is a {@code /video} stream, which the bandwidth limits apply to. */
+        boolean streaming;
+        AdaptiveRate rate;
+        /** Egress limit of this stream, {@code null} while unlimited. */
+        TokenBucket bucket;
+        boolean throttled;
+        /** Whether this is a {@code /ws} stream, which keeps reading acknowledgements. */
+        boolean webSocket;
+        /** Frames a WebSocket viewer may have unacknowledged. */
+        int credits;
+        long framesAcked;
+        long lastOfferedSequence;
+        /** Send buffer size last requested for this socket, {@code 0} before the first. */
+        int sendBufferBytes;
+        long lastAdmittedNanos;
+        boolean admittedAny;
+        long snapshotAfter;
+        long snapshotDeadlineNanos;
+        String ifNoneMatch;
+
+        Client(long id, SocketChannel channel, PipelineMetrics metrics) {
+            this.id = id;
+            this.channel = channel;
+            this.stream = new StreamClient(channel, metrics, id);
+        }
+
+        int readInterest() {
+            return webSocket && !closeAfterWrite ? SelectionKey.OP_READ : 0;
+        }
+
+        int currentQuality() {
+            return rate == null ? variant.quality : rate.variant().quality;
+        }
+    }
+}
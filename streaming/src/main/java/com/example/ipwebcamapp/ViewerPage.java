@@ -0,0 +1,83 @@
+package com.example.ipwebcamapp;
+
+/**
+ * The page served at {@code /}: a small viewer that plays {@code /ws} on a canvas.
+ *
+ * <p>It acknowledges every frame once it has been drawn, so the server never sends more
+ * than the viewer's decoder keeps up with, and reconnects after the connection drops.</p>
+ */
+final class ViewerPage {
+    private static final int CREDITS = 2;
+
+    private ViewerPage() {
+    }
+
+    /** @param cameras number of cameras offered in the camera selector */
+    static String html(int cameras) {
+        StringBuilder options = new StringBuilder();
+        for (int i = 0; i < cameras; i++) {
+            options.append("<option value=\"").append(i).append("\">Camera ").append(i).append("</option>");
+        }
+        return "<!DOCTYPE html>\n"
+                + "<html><head><meta charset=\"utf-8\">"
+                + "<meta name=\"viewport\" content=\"width=device-width, initial-scale=1\">"
+                + "<title>IP Webcam</title>\n"
+                + "<style>body{margin:0;background:#111;color:#ccc;font:14px sans-serif}"
+                + "#bar{padding:6px 8px}canvas{display:block;max-width:100%;margin:0 auto}</style>\n"
+                + "</head><body>\n"
+                + "<div id=\"bar\"><select id=\"camera\"" + (cameras > 1 ? "" : " hidden") + ">" + options
+                + "</select> <span id=\"stats\">Connecting...</span> <a href=\"/video\">MJPEG</a></div>\n"
+                + "<canvas id=\"view\"></canvas>\n"
+                + "<script>\n"
+                + "var canvas = document.getElementById('view'), ctx = canvas.getContext('2d');\n"
+                + "var stats = document.getElementById('stats'), camera = document.getElementById('camera');\n"
+                + "var socket, frames = 0, age = 0, windowStart = performance.now();\n"
+                + "function connect() {\n"
+                + "  var ws = new WebSocket((location.protocol == 'https:' ? 'wss://' : 'ws://')\n"
+                + "      + location.host + '/ws/' + camera.value + location.search);\n"
+                + "  ws.binaryType = 'arraybuffer';\n"
+                + "  ws.onopen = function () { ws.send('credits " + CREDITS + "'); };\n"
+                + "  ws.onmessage = function (event) {\n"
+                + "    var header = new DataView(event.data, 0, " + WebSocket.FRAME_HEADER_BYTES + ");\n"
+                + "    var seq = header.getUint32(0) * 4294967296 + header.getUint32(4);\n"
+                + "    var timestamp = header.getUint32(8) * 4294967296 + header.getUint32(12);\n"
+                + "    var url = URL.createObjectURL(new Blob([new Uint8Array(event.data, "
+                + WebSocket.FRAME_HEADER_BYTES + ")], {type: 'image/jpeg'}));\n"
+                + "    var image = new Image();\n"
+                + "    image.onload = image.onerror = function () {\n"
+                + "      URL.revokeObjectURL(url);\n"
+                + "      if (image.naturalWidth) {\n"
+                + "        if (canvas.width != image.naturalWidth || canvas.height != image.naturalHeight) {\n"
+                + "          canvas.width = image.naturalWidth;\n"
+                + "          canvas.height = image.naturalHeight;\n"
+                + "        }\n"
+                + "        ctx.drawImage(image, 0, 0);\n"
+                + "      }\n"
+                + "      if (ws.readyState == WebSocket.OPEN) ws.send('ack ' + seq);\n"
+                + "      frames++;\n"
+                + "      age = Date.now() - timestamp;\n"
+                + "    };\n"
+                + "    image.src = url;\n"
+                + "  };\n"
+                + "  ws.onclose = function () {\n"
+                + "    if (socket != ws) return;\n"
+                + "    stats.textContent = 'Disconnected, retrying...';\n"
+                + "    setTimeout(connect, 1000);\n"
+                + "  };\n"
+                + "  socket = ws;\n"
+                + "}\n"
+                + "camera.onchange = function () { var old = socket; socket = null; old.close(); connect(); };\n"
+                + "setInterval(function () {\n"
+                + "  var now = performance.now();\n"
+                + "  if (socket && socket.readyState == WebSocket.OPEN) {\n"
+                + "    stats.textContent = (frames * 1000 / (now - windowStart)).toFixed(1) + ' fps, '\n"
+                + "        + canvas.width + 'x' + canvas.height + ', frame age ' + age + ' ms';\n"
+                + "  }\n"
+                + "  frames = 0;\n"
+                + "  windowStart = now;\n"
+                + "}, 1000);\n"
+                + "connect();\n"
+                + "</script>\n"
+                + "</body></html>\n";
+    }
+}
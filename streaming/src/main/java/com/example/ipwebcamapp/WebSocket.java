@@ -0,0 +1,171 @@
+package com.example.ipwebcamapp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The parts of RFC 6455 the {@code /ws} endpoint needs: the opening handshake, unmasked
+ * server frames and parsing of the masked frames a client sends.
+ *
+ * <p>Every video frame goes out as one binary message whose payload starts with a
+ * {@value #FRAME_HEADER_BYTES}-byte big-endian header, the frame's capture sequence number
+ * (counted per camera, like {@code X-Frame-Seq}) followed by its capture time in epoch
+ * milliseconds, and continues with the JPEG. Clients pace the server with text messages:
+ * {@code ack <seq>} once a frame has been shown returns one credit, {@code credits <n>}
+ * sets how many frames may be unacknowledged at a time.</p>
+ */
+final class WebSocket {
+    static final int OPCODE_TEXT = 0x1;
+    static final int OPCODE_BINARY = 0x2;
+    static final int OPCODE_CLOSE = 0x8;
+    static final int OPCODE_PING = 0x9;
+    static final int OPCODE_PONG = 0xA;
+    static final int CLOSE_NORMAL = 1000;
+    static final int CLOSE_PROTOCOL_ERROR = 1002;
+    static final int FRAME_HEADER_BYTES = 16;
+
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    private WebSocket() {
+    }
+
+    /** Response that completes the handshake for a request carrying {@code Sec-WebSocket-Key: key}. */
+    static byte[] handshakeResponse(String key) {
+        return ("HTTP/1.1 101 Switching Protocols\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Accept: " + acceptKey(key) + "\r\n"
+                + "\r\n").getBytes(ASCII);
+    }
+
+    static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return base64(sha1.digest((key.trim() + ACCEPT_GUID).getBytes(ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    /** java.util.Base64 needs Android API 26, so the handful of bytes is encoded by hand. */
+    private static String base64(byte[] data) {
+        StringBuilder out = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int remaining = data.length - i;
+            int bits = (data[i] & 0xFF) << 16
+                    | (remaining > 1 ? (data[i + 1] & 0xFF) << 8 : 0)
+                    | (remaining > 2 ? data[i + 2] & 0xFF : 0);
+            out.append(BASE64[bits >>> 18 & 0x3F]).append(BASE64[bits >>> 12 & 0x3F])
+                    .append(remaining > 1 ? BASE64[bits >>> 6 & 0x3F] : '=')
+                    .append(remaining > 2 ? BASE64[bits & 0x3F] : '=');
+        }
+        return out.toString();
+    }
+
+    /**
+     * Header of the binary message carrying a {@code jpegLength} byte JPEG: the WebSocket
+     * frame header followed by the sequence number and timestamp.
+     */
+    static byte[] frameHeader(long sequence, long timestampMs, int jpegLength) {
+        long length = FRAME_HEADER_BYTES + (long) jpegLength;
+        ByteBuffer header = ByteBuffer.allocate(lengthFieldBytes(length) + 1 + FRAME_HEADER_BYTES);
+        header.put((byte) (0x80 | OPCODE_BINARY));
+        putLength(header, length);
+        header.putLong(sequence).putLong(timestampMs);
+        return header.array();
+    }
+
+    /** A complete, unfragmented server frame. */
+    static byte[] frame(int opcode, byte[] payload) {
+        ByteBuffer frame = ByteBuffer.allocate(1 + lengthFieldBytes(payload.length) + payload.length);
+        frame.put((byte) (0x80 | opcode));
+        putLength(frame, payload.length);
+        frame.put(payload);
+        return frame.array();
+    }
+
+    static byte[] closeFrame(int status) {
+        return frame(OPCODE_CLOSE, new byte[]{(byte) (status >>> 8), (byte) status});
+    }
+
+    private static int lengthFieldBytes(long length) {
+        return length < 126 ? 1 : length <= 0xFFFF ? 3 : 9;
+    }
+
+    private static void putLength(ByteBuffer out, long length) {
+        if (length < 126) {
+            out.put((byte) length);
+        } else if (length <= 0xFFFF) {
+            out.put((byte) 126).putShort((short) length);
+        } else {
+            out.put((byte) 127).putLong(length);
+        }
+    }
+
+    /** One frame received from a client, already unmasked. */
+    static final class Frame {
+        final boolean fin;
+        final int opcode;
+        final byte[] payload;
+
+        private Frame(boolean fin, int opcode, byte[] payload) {
+            this.fin = fin;
+            this.opcode = opcode;
+            this.payload = payload;
+        }
+
+        String text() {
+            return new String(payload, ASCII);
+        }
+
+        /**
+         * Reads the next frame from {@code in}, which is in read mode, and advances past it.
+         *
+         * @return the frame, or {@code null} with the position unchanged while it is incomplete
+         * @throws IOException if the frame is unmasked or would not fit into {@code in}
+         */
+        static Frame read(ByteBuffer in) throws IOException {
+            int start = in.position();
+            if (in.remaining() < 2) {
+                return null;
+            }
+            int first = in.get(start) & 0xFF;
+            int second = in.get(start + 1) & 0xFF;
+            if ((second & 0x80) == 0) {
+                throw new IOException("Unmasked client frame");
+            }
+            int lengthCode = second & 0x7F;
+            int headerLength = 2 + (lengthCode == 127 ? 8 : lengthCode == 126 ? 2 : 0) + 4;
+            if (in.remaining() < headerLength) {
+                return null;
+            }
+            long length;
+            if (lengthCode < 126) {
+                length = lengthCode;
+            } else if (lengthCode == 126) {
+                length = in.getShort(start + 2) & 0xFFFF;
+            } else {
+                length = in.getLong(start + 2);
+            }
+            if (length < 0 || headerLength + length > in.capacity()) {
+                throw new IOException("Client frame of " + length + " bytes is too large");
+            }
+            if (in.remaining() < headerLength + length) {
+                return null;
+            }
+            int mask = start + headerLength - 4;
+            byte[] payload = new byte[(int) length];
+            for (int i = 0; i < payload.length; i++) {
+                payload[i] = (byte) (in.get(mask + 4 + i) ^ in.get(mask + (i & 3)));
+            }
+            in.position(start + headerLength + payload.length);
+            return new Frame((first & 0x80) != 0, first & 0x0F, payload);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package com.example.ipwebcamapp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Converts {@code YUV_420_888} planes into NV21 without per-frame allocation.
+ *
+ * <p>Output arrays come from a small pool and must be handed back with
+ * {@link #release(byte[])} once the consumer is done with them. The pool holds arrays of
+ * several sizes at once (capture size plus scaled variants); the least recently released
+ * arrays are dropped first, so sizes that are no longer used age out. Planes are bulk-copied
+ * whenever the layout allows it: the Y plane in one copy when rows are unpadded, and the
+ * chroma planes in one copy when the camera already delivers interleaved VU data (the
+ * common semi-planar layout where the V and U planes overlap). Everything else falls back
+ * to a per-pixel loop using absolute reads.</p>
+ *
+ * <p>Whether the chroma planes overlap is decided from a few sampled bytes and remembered
+ * per {@link Source} for as long as its plane geometry stays the same. A remembered overlap
+ * is confirmed on every frame at a few positions that move from frame to frame, since
+ * wrongly taking the bulk copy would corrupt every later frame; planes that are seen not to
+ * overlap at some position cannot overlap, so that decision is final.</p>
+ */
+public final class YuvConverter {
+    private static final int DEFAULT_POOL_SIZE = 8;
+    private static final int LAYOUT_SAMPLES = 16;
+    /** Moves the confirming samples along by a prime number of bytes each frame. */
+    private static final int SAMPLE_SHIFT = 7919;
+    static final int LAYOUT_PLANAR = 0;
+    static final int LAYOUT_INTERLEAVED = 1;
+    static final int LAYOUT_UNKNOWN = 2;
+
+    private final ArrayDeque<byte[]> pool = new ArrayDeque<>();
+    private final int poolSize;
+    private final Source defaultSource = new Source();
+
+    public YuvConverter() {
+        this(DEFAULT_POOL_SIZE);
+    }
+
+    public YuvConverter(int poolSize) {
+        this.poolSize = poolSize;
+    }
+
+    /** Returns a pooled NV21 array for the given size, allocating only when none is free. */
+    public byte[] acquire(int width, int height) {
+        int size = nv21Size(width, height);
+        synchronized (pool) {
+            Iterator<byte[]> it = pool.iterator();
+            while (it.hasNext()) {
+                byte[] buffer = it.next();
+                if (buffer.length == size) {
+                    it.remove();
+                    return buffer;
+                }
+            }
+        }
+        return new byte[size];
+    }
+
+    /** Returns an array obtained from {@link #acquire(int, int)} or {@link #toNv21} to the pool. */
+    public void release(byte[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+        synchronized (pool) {
+            pool.addFirst(buffer);
+            if (pool.size() > poolSize) {
+                pool.removeLast();
+            }
+        }
+    }
+
+    /**
+     * Returns a source with its own remembered chroma layout that converts into this
+     * converter's pool. Each camera should convert through its own source, so cameras with
+     * different plane geometries do not keep replacing each other's layout.
+     */
+    public Source newSource() {
+        return new Source();
+    }
+
+    /**
+     * Converts the three planes into a pooled NV21 array, remembering the chroma layout for a
+     * single stream of frames. The plane buffers' positions and limits are left untouched.
+     */
+    public byte[] toNv21(int width, int height,
+                         ByteBuffer yPlane, int yRowStride,
+                         ByteBuffer uPlane, ByteBuffer vPlane, int uvRowStride, int uvPixelStride) {
+        return defaultSource.toNv21(width, height, yPlane, yRowStride, uPlane, vPlane, uvRowStride, uvPixelStride);
+    }
+
+    public static int nv21Size(int width, int height) {
+        return width * height * 3 / 2;
+    }
+
+    /** Converts the three planes into {@code out}, which must hold {@link #nv21Size} bytes. */
+    public static void convert(int width, int height,
+                               ByteBuffer yPlane, int yRowStride,
+                               ByteBuffer uPlane, ByteBuffer vPlane, int uvRowStride, int uvPixelStride,
+                               byte[] out) {
+        boolean interleaved = detectLayout(width, height, uPlane, vPlane, uvRowStride, uvPixelStride)
+                == LAYOUT_INTERLEAVED;
+        convert(width, height, yPlane, yRowStride, uPlane, vPlane, uvRowStride, uvPixelStride, interleaved, out);
+    }
+
+    private static void convert(int width, int height,
+                                ByteBuffer yPlane, int yRowStride,
+                                ByteBuffer uPlane, ByteBuffer vPlane, int uvRowStride, int uvPixelStride,
+                                boolean interleaved, byte[] out) {
+        copyLuma(width, height, yPlane.duplicate(), yRowStride, out);
+
+        ByteBuffer u = uPlane.duplicate();
+        ByteBuffer v = vPlane.duplicate();
+        if (interleaved) {
+            copyInterleavedChroma(width, height, u, v, uvRowStride, out);
+        } else {
+            copyPlanarChroma(width, height, u, v, uvRowStride, uvPixelStride, out);
+        }
+    }
+
+    /**
+     * Nearest-neighbour downscale of an NV21 frame. Chroma is sampled in VU pairs so the
+     * interleaving is preserved; both sizes must be even.
+     */
+    public static void scale(byte[] src, int srcWidth, int srcHeight, byte[] dst, int dstWidth, int dstHeight) {
+        int pos = 0;
+        for (int row = 0; row < dstHeight; row++) {
+            int srcRow = (row * srcHeight / dstHeight) * srcWidth;
+            for (int col = 0; col < dstWidth; col++) {
+                dst[pos++] = src[srcRow + col * srcWidth / dstWidth];
+            }
+        }
+        int srcChroma = srcWidth * srcHeight;
+        int chromaWidth = dstWidth / 2;
+        for (int row = 0; row < dstHeight / 2; row++) {
+            int srcRow = srcChroma + (row * srcHeight / dstHeight) * srcWidth;
+            for (int col = 0; col < chromaWidth; col++) {
+                int srcIndex = srcRow + ((2 * col * srcWidth / dstWidth) & ~1);
+                dst[pos++] = src[srcIndex];
+                dst[pos++] = src[srcIndex + 1];
+            }
+        }
+    }
+
+    private static void copyLuma(int width, int height, ByteBuffer y, int rowStride, byte[] out) {
+        int base = y.position();
+        if (rowStride == width) {
+            y.get(out, 0, width * height);
+            return;
+        }
+        int pos = 0;
+        for (int row = 0; row < height; row++) {
+            y.position(base + row * rowStride);
+            y.get(out, pos, width);
+            pos += width;
+        }
+    }
+
+    /**
+     * Detects the semi-planar layout in which the V plane, read from its first byte, already
+     * holds interleaved VU samples, i.e. V advanced by one byte is the U plane. Only
+     * {@value #LAYOUT_SAMPLES} positions spread over the chroma data are compared. When V and U
+     * are equal at every sampled position, as in a grey scene, the layout cannot be told
+     * apart and {@link #LAYOUT_UNKNOWN} is returned; the caller then takes the per-pixel path,
+     * which is correct for either layout, and asks again on the next frame.
+     */
+    static int detectLayout(int width, int height, ByteBuffer u, ByteBuffer v, int rowStride, int pixelStride) {
+        int overlap = overlap(width, height, u, v, rowStride, pixelStride);
+        if (overlap == 0) {
+            return LAYOUT_PLANAR;
+        }
+        int uBase = u.position();
+        int vBase = v.position();
+        boolean distinct = false;
+        for (int i = 0; i < LAYOUT_SAMPLES; i++) {
+            int index = (int) ((long) i * (overlap - 1) / (LAYOUT_SAMPLES - 1));
+            byte sample = u.get(uBase + index);
+            if (v.get(vBase + 1 + index) != sample) {
+                return LAYOUT_PLANAR;
+            }
+            distinct |= v.get(vBase + index) != sample;
+        }
+        return distinct ? LAYOUT_INTERLEAVED : LAYOUT_UNKNOWN;
+    }
+
+    /**
+     * Number of U plane bytes that V advanced by one byte covers if the planes are
+     * interleaved, or 0 if the geometry rules that layout out.
+     */
+    private static int overlap(int width, int height, ByteBuffer u, ByteBuffer v, int rowStride, int pixelStride) {
+        int chromaHeight = height / 2;
+        int overlap = (chromaHeight - 1) * rowStride + (width / 2) * 2 - 2;
+        if (pixelStride != 2 || chromaHeight == 0 || overlap <= 0
+                || v.remaining() < overlap + 1 || u.remaining() < overlap) {
+            return 0;
+        }
+        return overlap;
+    }
+
+    /**
+     * Checks {@value #LAYOUT_SAMPLES} positions, spread over the chroma data and shifted by
+     * {@code shift} bytes, that V advanced by one byte still equals U.
+     */
+    static boolean stillInterleaved(ByteBuffer u, ByteBuffer v, int overlap, long shift) {
+        int uBase = u.position();
+        int vBase = v.position();
+        for (int i = 0; i < LAYOUT_SAMPLES; i++) {
+            int index = (int) (((long) i * overlap / LAYOUT_SAMPLES + shift) % overlap);
+            if (v.get(vBase + 1 + index) != u.get(uBase + index)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void copyInterleavedChroma(int width, int height, ByteBuffer u, ByteBuffer v,
+                                              int rowStride, byte[] out) {
+        int chromaHeight = height / 2;
+        int chromaRowBytes = (width / 2) * 2;
+        int uBase = u.position();
+        int vBase = v.position();
+        int pos = width * height;
+        if (rowStride == chromaRowBytes) {
+            // The V plane holds every VU pair except the final U sample.
+            int length = chromaHeight * chromaRowBytes - 1;
+            v.get(out, pos, length);
+            out[pos + length] = u.get(uBase + length - 1);
+            return;
+        }
+        for (int row = 0; row < chromaHeight; row++) {
+            int rowStart = row * rowStride;
+            v.position(vBase + rowStart);
+            if (row < chromaHeight - 1) {
+                v.get(out, pos, chromaRowBytes);
+            } else {
+                v.get(out, pos, chromaRowBytes - 1);
+                out[pos + chromaRowBytes - 1] = u.get(uBase + rowStart + chromaRowBytes - 2);
+            }
+            pos += chromaRowBytes;
+        }
+    }
+
+    private static void copyPlanarChroma(int width, int height, ByteBuffer u, ByteBuffer v,
+                                         int rowStride, int pixelStride, byte[] out) {
+        int chromaHeight = height / 2;
+        int chromaWidth = width / 2;
+        int uBase = u.position();
+        int vBase = v.position();
+        int pos = width * height;
+        for (int row = 0; row < chromaHeight; row++) {
+            int rowStart = row * rowStride;
+            for (int col = 0; col < chromaWidth; col++) {
+                int index = rowStart + col * pixelStride;
+                out[pos++] = v.get(vBase + index); // V
+                out[pos++] = u.get(uBase + index); // U
+            }
+        }
+    }
+
+    /**
+     * One stream of frames, typically one camera, converted into the converter's pool with
+     * its own remembered chroma layout. A source is used from one thread at a time.
+     */
+    public final class Source {
+        private volatile ChromaLayout layout;
+        private long frames;
+
+        private Source() {
+        }
+
+        /** Like {@link YuvConverter#toNv21}, for the frames of this source. */
+        public byte[] toNv21(int width, int height,
+                             ByteBuffer yPlane, int yRowStride,
+                             ByteBuffer uPlane, ByteBuffer vPlane, int uvRowStride, int uvPixelStride) {
+            byte[] nv21 = acquire(width, height);
+            boolean interleaved = isInterleaved(width, height, uPlane, vPlane, uvRowStride, uvPixelStride);
+            convert(width, height, yPlane, yRowStride, uPlane, vPlane, uvRowStride, uvPixelStride, interleaved, nv21);
+            return nv21;
+        }
+
+        /** Remembered layout, {@link #LAYOUT_UNKNOWN} until one is decided. */
+        int layout() {
+            ChromaLayout known = layout;
+            return known == null ? LAYOUT_UNKNOWN : known.interleaved ? LAYOUT_INTERLEAVED : LAYOUT_PLANAR;
+        }
+
+        private boolean isInterleaved(int width, int height, ByteBuffer u, ByteBuffer v,
+                                      int rowStride, int pixelStride) {
+            ChromaLayout known = layout;
+            if (known != null && known.matches(width, height, u, v, rowStride, pixelStride)) {
+                if (!known.interleaved) {
+                    return false;
+                }
+                long shift = ++frames * SAMPLE_SHIFT;
+                if (stillInterleaved(u, v, overlap(width, height, u, v, rowStride, pixelStride), shift)) {
+                    return true;
+                }
+                // A differing byte proves the planes are separate.
+                layout = new ChromaLayout(width, height, u, v, rowStride, pixelStride, false);
+                return false;
+            }
+            int decided = detectLayout(width, height, u, v, rowStride, pixelStride);
+            if (decided != LAYOUT_UNKNOWN) {
+                layout = new ChromaLayout(width, height, u, v, rowStride, pixelStride, decided == LAYOUT_INTERLEAVED);
+            }
+            return decided == LAYOUT_INTERLEAVED;
+        }
+    }
+
+    /**
+     * Chroma layout decided for one plane geometry. Images from the same reader come with new
+     * buffer objects over the same memory, so the geometry rather than the buffer identity is
+     * what is compared.
+     */
+    private static final class ChromaLayout {
+        final int width;
+        final int height;
+        final int rowStride;
+        final int pixelStride;
+        final int uRemaining;
+        final int vRemaining;
+        final boolean direct;
+        final boolean interleaved;
+
+        ChromaLayout(int width, int height, ByteBuffer u, ByteBuffer v, int rowStride, int pixelStride,
+                     boolean interleaved) {
+            this.width = width;
+            this.height = height;
+            this.rowStride = rowStride;
+            this.pixelStride = pixelStride;
+            this.uRemaining = u.remaining();
+            this.vRemaining = v.remaining();
+            this.direct = u.isDirect() && v.isDirect();
+            this.interleaved = interleaved;
+        }
+
+        boolean matches(int width, int height, ByteBuffer u, ByteBuffer v, int rowStride, int pixelStride) {
+            return width == this.width && height == this.height
+                    && rowStride == this.rowStride && pixelStride == this.pixelStride
+                    && u.remaining() == uRemaining && v.remaining() == vRemaining
+                    && (u.isDirect() && v.isDirect()) == direct;
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.example.ipwebcamapp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A captured {@code YUV_420_888} frame as handed from a {@link FrameSource} to its
+ * {@link FrameSink}. The plane buffers belong to the source and are only valid for the
+ * duration of {@link FrameSink#onFrame(YuvFrame)}.
+ */
+public final class YuvFrame {
+    public final int width;
+    public final int height;
+    /**
+     * Capture time in nanoseconds on the {@link System#nanoTime()} clock; sources translate
+     * their own clocks, such as the sensor timestamp of a camera.
+     */
+    public final long timestampNanos;
+    public final ByteBuffer yPlane;
+    public final ByteBuffer uPlane;
+    public final ByteBuffer vPlane;
+    public final int yRowStride;
+    public final int uvRowStride;
+    public final int uvPixelStride;
+
+    public YuvFrame(int width, int height, long timestampNanos,
+                    ByteBuffer yPlane, int yRowStride,
+                    ByteBuffer uPlane, ByteBuffer vPlane, int uvRowStride, int uvPixelStride) {
+        this.width = width;
+        this.height = height;
+        this.timestampNanos = timestampNanos;
+        this.yPlane = yPlane;
+        this.uPlane = uPlane;
+        this.vPlane = vPlane;
+        this.yRowStride = yRowStride;
+        this.uvRowStride = uvRowStride;
+        this.uvPixelStride = uvPixelStride;
+    }
+}
@@ -0,0 +1,166 @@
+package com.example.ipwebcamapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Drives {@link AdaptiveRate} through its ladder with synthetic send counters. */
+public class AdaptiveRateTest {
+    private static final StreamVariant REQUESTED = new StreamVariant(640, 80);
+
+    private final AdaptiveRate rate = new AdaptiveRate(REQUESTED, 0);
+    private long now;
+    private long sent;
+    private long dropped;
+    private long late;
+    private long sendNanos;
+
+    /** Ends one window in which the socket was busy writing for {@code busyRatio} of the time. */
+    private boolean window(int sentFrames, int droppedFrames, int lateFrames, double busyRatio) {
+        now += AdaptiveRate.WINDOW_NANOS;
+        sent += sentFrames;
+        dropped += droppedFrames;
+        late += lateFrames;
+        sendNanos += (long) (busyRatio * AdaptiveRate.WINDOW_NANOS);
+        return rate.update(sent, dropped, late, sendNanos, now);
+    }
+
+    private boolean congested() {
+        return window(15, 15, 0, 0.5);
+    }
+
+    private boolean clean() {
+        return window(30, 0, 0, 0.1);
+    }
+
+    @Test
+    public void startsWithTheRequestedVariant() {
+        assertEquals(REQUESTED, rate.variant());
+        assertEquals(0, rate.maxFps());
+    }
+
+    @Test
+    public void waitsForTheWindowToEnd() {
+        assertFalse(rate.update(0, 100, 0, 0, AdaptiveRate.WINDOW_NANOS - 1));
+        assertEquals(REQUESTED, rate.variant());
+    }
+
+    @Test
+    public void stepsDownTheLadderOneStepPerCongestedWindow() {
+        for (int step = 0; step < AdaptiveRate.QUALITY_STEPS.length; step++) {
+            assertTrue(congested());
+            assertEquals(new StreamVariant(640, AdaptiveRate.QUALITY_STEPS[step]), rate.variant());
+            assertEquals(AdaptiveRate.FPS_STEPS[step], rate.maxFps());
+        }
+        assertFalse(congested());
+        assertEquals(AdaptiveRate.FPS_STEPS[AdaptiveRate.FPS_STEPS.length - 1], rate.maxFps());
+    }
+
+    @Test
+    public void lateFramesCountAsCongestion() {
+        assertTrue(window(30, 0, 5, 0.3));
+        assertEquals(AdaptiveRate.QUALITY_STEPS[0], rate.variant().quality);
+    }
+
+    @Test
+    public void busySocketCountsAsCongestion() {
+        assertTrue(window(5, 0, 0, 0.9));
+    }
+
+    @Test
+    public void occasionalDropsAreTolerated() {
+        assertFalse(window(29, 1, 0, 0.3));
+        assertEquals(REQUESTED, rate.variant());
+    }
+
+    @Test
+    public void neverAsksForMoreQualityThanRequested() {
+        AdaptiveRate low = new AdaptiveRate(new StreamVariant(0, 40), 0);
+        assertTrue(low.update(10, 10, 0, 0, AdaptiveRate.WINDOW_NANOS));
+        assertEquals(40, low.variant().quality);
+    }
+
+    @Test
+    public void stepsBackUpAfterCleanWindows() {
+        assertTrue(congested());
+        for (int i = 1; i < AdaptiveRate.RECOVERY_WINDOWS; i++) {
+            assertFalse(clean());
+        }
+        assertTrue(clean());
+        assertEquals(REQUESTED, rate.variant());
+    }
+
+    @Test
+    public void dropsHoldOffRecovery() {
+        assertTrue(congested());
+        for (int i = 0; i < 2 * AdaptiveRate.RECOVERY_WINDOWS; i++) {
+            assertFalse(window(29, 1, 0, 0.1));
+        }
+        assertEquals(AdaptiveRate.QUALITY_STEPS[0], rate.variant().quality);
+    }
+
+    @Test
+    public void lateFramesHoldOffRecovery() {
+        assertTrue(congested());
+        for (int i = 0; i < 2 * AdaptiveRate.RECOVERY_WINDOWS; i++) {
+            assertFalse(window(30, 0, 1, 0.1));
+        }
+        assertEquals(AdaptiveRate.QUALITY_STEPS[0], rate.variant().quality);
+    }
+
+    @Test
+    public void failedProbeDoublesTheCleanWindowsNeeded() {
+        assertTrue(congested());
+        assertTrue(congested());
+        for (int i = 0; i < AdaptiveRate.RECOVERY_WINDOWS; i++) {
+            clean();
+        }
+        assertEquals(AdaptiveRate.QUALITY_STEPS[0], rate.variant().quality);
+        // The probe fails right away, so the next one needs twice as many clean windows.
+        assertTrue(congested());
+        for (int i = 1; i < 2 * AdaptiveRate.RECOVERY_WINDOWS; i++) {
+            assertFalse(clean());
+        }
+        assertTrue(clean());
+        assertEquals(AdaptiveRate.QUALITY_STEPS[0], rate.variant().quality);
+    }
+
+    @Test
+    public void backoffIsForgottenOnceBackAtTheTop() {
+        assertTrue(congested());
+        for (int i = 0; i < AdaptiveRate.RECOVERY_WINDOWS; i++) {
+            clean();
+        }
+        assertTrue(congested());
+        for (int i = 0; i < 2 * AdaptiveRate.RECOVERY_WINDOWS; i++) {
+            clean();
+        }
+        assertEquals(REQUESTED, rate.variant());
+        for (int i = 0; i <= AdaptiveRate.RECOVERY_WINDOWS; i++) {
+            assertFalse(clean());
+        }
+        assertTrue(congested());
+        for (int i = 1; i < AdaptiveRate.RECOVERY_WINDOWS; i++) {
+            assertFalse(clean());
+        }
+        assertTrue(clean());
+    }
+
+    @Test
+    public void clientsOnTheSameStepShareOneEncode() {
+        AdaptiveRate other = new AdaptiveRate(new StreamVariant(640, 90), 0);
+        AdaptiveRate otherWidth = new AdaptiveRate(new StreamVariant(320, 80), 0);
+        assertTrue(congested());
+        assertTrue(other.update(10, 10, 0, 0, AdaptiveRate.WINDOW_NANOS));
+        assertTrue(otherWidth.update(10, 10, 0, 0, AdaptiveRate.WINDOW_NANOS));
+
+        VariantRegistry registry = new VariantRegistry();
+        assertEquals(rate.variant(), other.variant());
+        assertSame(registry.get(rate.variant()), registry.get(other.variant()));
+        assertNotSame(registry.get(rate.variant()), registry.get(otherWidth.variant()));
+    }
+}
@@ -0,0 +1,118 @@
+package com.example.ipwebcamapp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Writes AVI files and checks the RIFF structure a player relies on. */
+public class AviMjpegWriterTest {
+    private static final int MOVI_LIST = 212;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * The markers of a baseline JPEG up to its frame header, with an APP0 segment and a
+     * quantization table first as encoders write them. The muxer only reads the frame size.
+     */
+    static byte[] jpeg(int width, int height) {
+        ByteBuffer out = ByteBuffer.allocate(110);
+        out.putShort((short) 0xFFD8);
+        out.putShort((short) 0xFFE0).putShort((short) 16).put("JFIF\0".getBytes(StandardCharsets.US_ASCII))
+                .put(new byte[9]);
+        out.putShort((short) 0xFFDB).putShort((short) 67).put(new byte[65]);
+        out.putShort((short) 0xFFC0).putShort((short) 17).put((byte) 8)
+                .putShort((short) height).putShort((short) width)
+                .put(new byte[]{3, 1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1});
+        out.putShort((short) 0xFFD9);
+        return out.array();
+    }
+
+    @Test
+    public void writesRiffHeaderMoviAndIndex() throws IOException {
+        File file = folder.newFile("segment.avi");
+        byte[] even = jpeg(32, 16);
+        byte[] odd = Arrays.copyOf(even, even.length + 1);
+        AviMjpegWriter writer = new AviMjpegWriter(file, 32, 16, 10);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(writer.writeFrame(ByteBuffer.wrap(i % 2 == 0 ? even : odd), i * 40_000_000L));
+        }
+        assertEquals(5, writer.frameCount());
+        writer.close();
+
+        ByteBuffer avi = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        assertFourcc("RIFF", avi, 0);
+        assertEquals(avi.capacity() - 8, avi.getInt(4));
+        assertFourcc("AVI ", avi, 8);
+        assertFourcc("LIST", avi, 12);
+        assertEquals(192, avi.getInt(16));
+        assertFourcc("hdrl", avi, 20);
+        assertFourcc("avih", avi, 24);
+        assertEquals(40_000, avi.getInt(32)); // microseconds per frame
+        assertEquals(5, avi.getInt(48)); // total frames
+        assertEquals(32, avi.getInt(64));
+        assertEquals(16, avi.getInt(68));
+        assertFourcc("strl", avi, 96);
+        assertFourcc("vids", avi, 108);
+        assertFourcc("MJPG", avi, 112);
+
+        assertFourcc("LIST", avi, MOVI_LIST);
+        int moviSize = avi.getInt(MOVI_LIST + 4);
+        assertFourcc("movi", avi, MOVI_LIST + 8);
+        int indexStart = MOVI_LIST + 8 + moviSize;
+        assertFourcc("idx1", avi, indexStart);
+        assertEquals(5 * 16, avi.getInt(indexStart + 4));
+        assertEquals(avi.capacity(), indexStart + 8 + 5 * 16);
+
+        int chunk = MOVI_LIST + 12;
+        for (int i = 0; i < 5; i++) {
+            byte[] expected = i % 2 == 0 ? even : odd;
+            int entry = indexStart + 8 + i * 16;
+            assertFourcc("00dc", avi, entry);
+            // Index offsets count from the "movi" fourcc.
+            assertEquals(chunk - (MOVI_LIST + 8), avi.getInt(entry + 8));
+            assertEquals(expected.length, avi.getInt(entry + 12));
+            assertFourcc("00dc", avi, chunk);
+            assertEquals(expected.length, avi.getInt(chunk + 4));
+            byte[] payload = new byte[expected.length];
+            ((ByteBuffer) avi.duplicate().position(chunk + 8)).get(payload);
+            assertArrayEquals(expected, payload);
+            chunk += 8 + expected.length + (expected.length & 1);
+        }
+        assertEquals(indexStart, chunk);
+    }
+
+    @Test
+    public void refusesFramesOnceTheIndexIsFull() throws IOException {
+        AviMjpegWriter writer = new AviMjpegWriter(folder.newFile("full.avi"), 32, 16, 2);
+        byte[] frame = jpeg(32, 16);
+        assertTrue(writer.writeFrame(ByteBuffer.wrap(frame), 0));
+        assertTrue(writer.writeFrame(ByteBuffer.wrap(frame), 1));
+        assertFalse(writer.writeFrame(ByteBuffer.wrap(frame), 2));
+        writer.close();
+    }
+
+    @Test
+    public void readsTheFrameSizeFromTheJpeg() {
+        assertArrayEquals(new int[]{48, 32}, AviMjpegWriter.readJpegSize(ByteBuffer.wrap(jpeg(48, 32))));
+    }
+
+    static void assertFourcc(String expected, ByteBuffer avi, int offset) {
+        byte[] code = new byte[4];
+        ((ByteBuffer) avi.duplicate().position(offset)).get(code);
+        assertEquals(expected, new String(code, StandardCharsets.US_ASCII));
+    }
+}
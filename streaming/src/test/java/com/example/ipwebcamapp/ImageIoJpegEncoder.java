@@ -0,0 +1,70 @@
+package com.example.ipwebcamapp;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * {@link JpegEncoder} backed by the JDK's ImageIO, so the tests can run the pipeline on
+ * a regular JVM. Test-only: Android has neither AWT nor ImageIO.
+ */
+final class ImageIoJpegEncoder implements JpegEncoder {
+
+    @Override
+    public void encode(Nv21Frame frame, int quality, JpegOutputStream out) {
+        BufferedImage image = toImage(frame);
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) {
+            throw new IllegalStateException("No JPEG writer available");
+        }
+        // Writers keep state, so every call gets its own.
+        ImageWriter writer = writers.next();
+        try (ImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(Math.max(1, Math.min(100, quality)) / 100f);
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } catch (IOException e) {
+            throw new IllegalStateException("JPEG encoding failed", e);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    /** Full-range BT.601 conversion, the same JFIF colour space the Android encoder writes. */
+    static BufferedImage toImage(Nv21Frame frame) {
+        int width = frame.width;
+        int height = frame.height;
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        byte[] bgr = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        byte[] nv21 = frame.data;
+        int chroma = width * height;
+        int pos = 0;
+        for (int row = 0; row < height; row++) {
+            int chromaRow = chroma + Math.min(row / 2, height / 2 - 1) * (width / 2) * 2;
+            for (int col = 0; col < width; col++) {
+                int y = nv21[row * width + col] & 0xFF;
+                int index = chromaRow + Math.min(col / 2, width / 2 - 1) * 2;
+                int v = (nv21[index] & 0xFF) - 128;
+                int u = (nv21[index + 1] & 0xFF) - 128;
+                bgr[pos++] = clamp(y + (1814 * u >> 10));
+                bgr[pos++] = clamp(y - (352 * u + 731 * v >> 10));
+                bgr[pos++] = clamp(y + (1436 * v >> 10));
+            }
+        }
+        return image;
+    }
+
+    private static byte clamp(int value) {
+        return (byte) (value < 0 ? 0 : value > 255 ? 255 : value);
+    }
+}
@@ -0,0 +1,39 @@
+package com.example.ipwebcamapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Capture statistics of several cameras recorded into one {@link PipelineMetrics}. */
+public class PipelineMetricsTest {
+    private static final long FRAME_NANOS = 1_000_000_000L / 30;
+
+    @Test
+    public void camerasNumberAndTimeTheirFramesSeparately() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        PipelineMetrics.CaptureSource first = metrics.addSource();
+        PipelineMetrics.CaptureSource second = metrics.addSource();
+        long now = 1_000_000_000L;
+        for (int frame = 1; frame <= 60; frame++) {
+            // Both cameras run at 30 fps, half a frame apart.
+            assertEquals(frame, first.recordCapture(now, now));
+            assertEquals(frame, second.recordCapture(now + FRAME_NANOS / 2, now + FRAME_NANOS / 2));
+            now += FRAME_NANOS;
+        }
+
+        StringBuilder out = new StringBuilder();
+        metrics.writePrometheus(out);
+        String text = out.toString();
+        assertTrue(text, text.contains("ipwebcam_frames_captured_total{camera=\"0\"} 60\n"));
+        assertTrue(text, text.contains("ipwebcam_frames_captured_total{camera=\"1\"} 60\n"));
+        assertEquals(30, fps(text, 0), 0.1);
+        assertEquals(30, fps(text, 1), 0.1);
+    }
+
+    private static double fps(String prometheus, int camera) {
+        String prefix = "ipwebcam_capture_fps{camera=\"" + camera + "\"} ";
+        int start = prometheus.indexOf(prefix) + prefix.length();
+        return Double.parseDouble(prometheus.substring(start, prometheus.indexOf('\n', start)));
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.ipwebcamapp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Buffers published frames and exports them as clips into a temporary directory. */
+public class PreRollBufferTest {
+    private static final long FRAME_NANOS = 100_000_000L;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final VariantRegistry variants = new VariantRegistry();
+    private final byte[] jpeg = AviMjpegWriterTest.jpeg(32, 16);
+
+    /** Publishes frames 100 ms apart in capture time, as fast as possible in wall time. */
+    private void publish(int frames) {
+        FramePublisher publisher = variants.get(StreamVariant.DEFAULT);
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            publisher.publish(jpeg, 0, jpeg.length, i + 1, start + i * FRAME_NANOS);
+        }
+    }
+
+    @Test
+    public void exportsClipsTimedByCaptureTime() throws IOException {
+        PreRollBuffer preRoll = new PreRollBuffer(variants, StreamVariant.DEFAULT, 1 << 20, 60);
+        preRoll.start();
+        publish(25);
+
+        File clip = folder.newFile("clip.avi");
+        // The last second holds the newest frame and the ten before it.
+        assertEquals(11, preRoll.exportAvi(clip, 1));
+        preRoll.stop();
+        ByteBuffer avi = ByteBuffer.wrap(Files.readAllBytes(clip.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+        AviMjpegWriterTest.assertFourcc("RIFF", avi, 0);
+        assertEquals(FRAME_NANOS / 1000, avi.getInt(32));
+        assertEquals(11, avi.getInt(48));
+    }
+
+    @Test
+    public void dropsFramesOlderThanTheWindow() throws IOException {
+        PreRollBuffer preRoll = new PreRollBuffer(variants, StreamVariant.DEFAULT, 1 << 20, 1);
+        preRoll.start();
+        publish(25);
+
+        // Only the newest second of capture time is kept, however quickly it was published.
+        assertEquals(11, preRoll.exportAvi(folder.newFile("clip.avi"), 60));
+        preRoll.stop();
+    }
+}
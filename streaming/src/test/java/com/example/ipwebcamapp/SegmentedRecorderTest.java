@@ -0,0 +1,121 @@
+package com.example.ipwebcamapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/** Records published frames into a temporary directory. */
+public class SegmentedRecorderTest {
+    private static final long FRAME_NANOS = 100_000_000L;
+    private static final long DAY_MS = 24L * 60 * 60 * 1000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final VariantRegistry variants = new VariantRegistry();
+    private final byte[] jpeg = AviMjpegWriterTest.jpeg(32, 16);
+
+    /** Publishes frames 100 ms apart in capture time, as fast as possible in wall time. */
+    private void publish(int frames) {
+        FramePublisher publisher = variants.get(StreamVariant.DEFAULT);
+        long start = System.nanoTime();
+        for (int i = 0; i < frames; i++) {
+            publisher.publish(jpeg, 0, jpeg.length, i + 1, start + i * FRAME_NANOS);
+        }
+    }
+
+    @Test
+    public void rollsSegmentsByCaptureTime() throws IOException {
+        File directory = folder.newFolder("recordings");
+        SegmentedRecorder recorder = new SegmentedRecorder(directory, variants, StreamVariant.DEFAULT,
+                1000, DAY_MS, Long.MAX_VALUE);
+        recorder.start();
+        publish(25);
+        recorder.stop();
+
+        List<File> segments = recorder.recordings();
+        assertEquals(3, segments.size());
+        int[] expectedFrames = {10, 10, 5};
+        for (int i = 0; i < segments.size(); i++) {
+            ByteBuffer avi = ByteBuffer.wrap(Files.readAllBytes(segments.get(i).toPath()))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            AviMjpegWriterTest.assertFourcc("RIFF", avi, 0);
+            assertEquals(FRAME_NANOS / 1000, avi.getInt(32));
+            assertEquals(expectedFrames[i], avi.getInt(48));
+        }
+        assertEquals(25, recorder.framesRecorded.get());
+        assertEquals(0, recorder.framesDropped.get());
+        String[] parts = directory.list((dir, name) -> name.endsWith(".part"));
+        assertEquals(0, parts.length);
+    }
+
+    @Test
+    public void deletesStalePartsAndExpiredRecordings() throws IOException {
+        File directory = folder.newFolder("recordings");
+        File stale = new File(directory, "20200101-000000.avi.part");
+        File expired = new File(directory, "20200101-000000.avi");
+        assertTrue(stale.createNewFile());
+        Files.write(expired.toPath(), jpeg);
+        assertTrue(expired.setLastModified(System.currentTimeMillis() - 2 * DAY_MS));
+
+        SegmentedRecorder recorder = new SegmentedRecorder(directory, variants, StreamVariant.DEFAULT,
+                1000, DAY_MS, Long.MAX_VALUE);
+        recorder.start();
+        assertFalse(stale.exists());
+        publish(5);
+        recorder.stop();
+
+        assertFalse(expired.exists());
+        assertEquals(1, recorder.recordings().size());
+    }
+
+    @Test
+    public void keepsTheNewestRecordingsWithinTheSizeLimit() throws IOException {
+        File directory = folder.newFolder("recordings");
+        SegmentedRecorder recorder = new SegmentedRecorder(directory, variants, StreamVariant.DEFAULT,
+                1000, DAY_MS, aviSize(10) + aviSize(5));
+        recorder.start();
+        publish(25);
+        recorder.stop();
+
+        // Segments of 10, 10 and 5 frames; the first is deleted once the second is done.
+        List<File> segments = recorder.recordings();
+        assertEquals(2, segments.size());
+        assertEquals(aviSize(10), segments.get(0).length());
+        assertEquals(aviSize(5), segments.get(1).length());
+    }
+
+    @Test
+    public void listsSegmentsOfOneSecondInSuffixOrder() throws IOException {
+        File directory = folder.newFolder("recordings");
+        String[] names = {"20200101-000000.avi", "20200101-000000_2.avi", "20200101-000000_10.avi",
+                "20200101-000001.avi"};
+        for (int i = names.length - 1; i >= 0; i--) {
+            assertTrue(new File(directory, names[i]).createNewFile());
+        }
+        SegmentedRecorder recorder = new SegmentedRecorder(directory, variants, StreamVariant.DEFAULT,
+                1000, DAY_MS, Long.MAX_VALUE);
+
+        List<File> recordings = recorder.recordings();
+        assertEquals(names.length, recordings.size());
+        for (int i = 0; i < names.length; i++) {
+            assertEquals(names[i], recordings.get(i).getName());
+        }
+    }
+
+    /** Header, word-aligned chunks and index of a segment holding {@code frames} test frames. */
+    private long aviSize(int frames) {
+        return 224 + frames * (8L + jpeg.length + (jpeg.length & 1)) + 8 + 16L * frames;
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.ipwebcamapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+/** Routing of the streaming module's log messages to an installed {@link StreamLog.Sink}. */
+public class StreamLogTest {
+
+    @After
+    public void restoreDefaultSink() {
+        StreamLog.setSink(null);
+    }
+
+    @Test
+    public void installedSinkReceivesEveryLevel() {
+        final List<String> lines = new ArrayList<>();
+        final Throwable failure = new IllegalStateException("boom");
+        StreamLog.setSink(new StreamLog.Sink() {
+            @Override
+            public void d(String tag, String message) {
+                lines.add("D/" + tag + ": " + message);
+            }
+
+            @Override
+            public void w(String tag, String message) {
+                lines.add("W/" + tag + ": " + message);
+            }
+
+            @Override
+            public void e(String tag, String message, Throwable throwable) {
+                lines.add("E/" + tag + ": " + message);
+                if (throwable != null) {
+                    assertSame(failure, throwable);
+                }
+            }
+        });
+
+        StreamLog.d("Encoder", "started");
+        StreamLog.w("Encoder", "slow");
+        StreamLog.e("Encoder", "failed");
+        StreamLog.e("Encoder", "crashed", failure);
+
+        assertEquals("[D/Encoder: started, W/Encoder: slow, E/Encoder: failed, E/Encoder: crashed]",
+                lines.toString());
+    }
+
+    @Test
+    public void defaultSinkAcceptsMessages() {
+        StreamLog.d("Encoder", "started");
+        StreamLog.e("Encoder", "failed", null);
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.ipwebcamapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/** Refill arithmetic of {@link TokenBucket}, on a simulated clock. */
+public class TokenBucketTest {
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void refillsAtTheRateUpToTheBurst() {
+        TokenBucket bucket = new TokenBucket(400_000, 0);
+        assertEquals(100_000, bucket.available(0));
+        bucket.consume(100_000);
+        assertEquals(0, bucket.available(0));
+        assertEquals(40_000, bucket.available(SECOND / 10));
+        assertEquals(100_000, bucket.available(10 * SECOND));
+    }
+
+    @Test
+    public void paysOffDebtBeforeWritingAgain() {
+        TokenBucket bucket = new TokenBucket(400_000, 0);
+        bucket.consume(140_000);
+        assertEquals(0, bucket.available(SECOND / 20));
+        assertEquals(20_000, bucket.available(SECOND / 10 + SECOND / 20));
+    }
+
+    @Test
+    public void refillsAfterALongIdlePeriodAtAHighRate() {
+        // 60 s at 200 MB/s is more than a long can hold in nanosecond-bytes.
+        TokenBucket bucket = new TokenBucket(200_000_000L, 0);
+        bucket.consume(bucket.available(0));
+        assertEquals(50_000_000L, bucket.available(60 * SECOND));
+    }
+
+    @Test
+    public void refillsExactlyAtHighRates() {
+        long[] rates = {200_000_000L, 10_000_000_000L, 1L << 40};
+        for (long rate : rates) {
+            TokenBucket bucket = new TokenBucket(rate, 0);
+            bucket.consume(rate / 4);
+            for (int millis = 1; millis <= 100; millis++) {
+                bucket.available(millis * SECOND / 1000);
+            }
+            // Each call may round away up to a nanosecond's worth of bytes.
+            assertEquals(rate / 10, bucket.available(SECOND / 10), 100 * (rate / SECOND + 1));
+        }
+    }
+
+    @Test
+    public void extremeRatesNeverWrap() {
+        long[] rates = {Long.MAX_VALUE / 2, Long.MAX_VALUE};
+        for (long rate : rates) {
+            TokenBucket bucket = new TokenBucket(rate, 0);
+            bucket.consume(rate / 4);
+            long previous = 0;
+            for (int seconds = 1; seconds <= 100; seconds++) {
+                long available = bucket.available(seconds * SECOND);
+                assertTrue(available > previous && available <= rate / 4);
+                previous = available;
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.ipwebcamapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/** Records trace events and reads them back from the Chrome trace JSON. */
+public class TraceRingTest {
+    private static final Pattern EVENT = Pattern.compile(
+            "\"dur\":([0-9.]+),\"pid\":1,\"tid\":(\\d+),\"args\":\\{\"seq\":(\\d+),\"client\":(\\d+)}");
+
+    @Test
+    public void keepsTheNewestEventsOldestFirst() {
+        TraceRing ring = new TraceRing(4);
+        for (long sequence = 1; sequence <= 6; sequence++) {
+            ring.record(TraceRing.STAGE_ENCODE, 0, sequence * 1000, sequence, 0);
+        }
+        List<long[]> events = events(ring.toChromeTraceJson());
+        assertEquals(4, events.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(3 + i, events.get(i)[1]);
+        }
+    }
+
+    @Test
+    public void concurrentDumpsOnlySeeWholeEvents() throws InterruptedException {
+        final TraceRing ring = new TraceRing(64);
+        final AtomicBoolean running = new AtomicBoolean(true);
+        List<Thread> writers = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            Thread writer = new Thread(() -> {
+                long sequence = 1;
+                while (running.get()) {
+                    // Every field of an event is derived from its sequence number.
+                    ring.record(TraceRing.STAGE_SEND, 0, sequence * 1000, sequence, sequence);
+                    sequence++;
+                }
+            });
+            writer.start();
+            writers.add(writer);
+        }
+        try {
+            for (int dump = 0; dump < 2000; dump++) {
+                for (long[] event : events(ring.toChromeTraceJson())) {
+                    assertEquals(event[1], event[0]);
+                    assertEquals(event[1], event[2]);
+                    assertEquals(100 + event[1], event[3]);
+                }
+            }
+        } finally {
+            running.set(false);
+            for (Thread writer : writers) {
+                writer.join();
+            }
+        }
+        assertTrue(events(ring.toChromeTraceJson()).size() > 0);
+    }
+
+    /** Duration in microseconds, sequence, client and lane of every event with a duration. */
+    private static List<long[]> events(String json) {
+        List<long[]> events = new ArrayList<>();
+        Matcher matcher = EVENT.matcher(json);
+        while (matcher.find()) {
+            events.add(new long[]{(long) Double.parseDouble(matcher.group(1)), Long.parseLong(matcher.group(3)),
+                    Long.parseLong(matcher.group(4)), Long.parseLong(matcher.group(2))});
+        }
+        return events;
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.ipwebcamapp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs the whole off-device pipeline, {@link SyntheticFrameSource} to {@link CapturePipeline}
+ * to {@link EncoderStage} to {@link VideoHttpServer}, and reads {@code /video} like a browser.
+ */
+public class VideoHttpServerTest {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+
+    private final VariantRegistry variants = new VariantRegistry();
+    private EncoderStage encoder;
+    private VideoHttpServer server;
+    private SyntheticFrameSource source;
+
+    @Before
+    public void startPipeline() throws IOException {
+        YuvConverter converter = new YuvConverter();
+        PipelineMetrics metrics = new PipelineMetrics();
+        encoder = new EncoderStage(new ImageIoJpegEncoder(), converter, metrics);
+        encoder.start();
+        server = new VideoHttpServer(0, variants, metrics);
+        server.start();
+        source = new SyntheticFrameSource(WIDTH, HEIGHT, 30);
+        source.start(new CapturePipeline(converter, encoder.addSource(variants), metrics));
+    }
+
+    @After
+    public void stopPipeline() {
+        source.stop();
+        server.stop();
+        encoder.stop();
+    }
+
+    @Test(timeout = 10_000)
+    public void streamsDecodableMultipartParts() throws IOException {
+        assertStreams("/video", WIDTH, HEIGHT);
+    }
+
+    @Test(timeout = 10_000)
+    public void streamsRequestedWidth() throws IOException {
+        assertStreams("/video?width=160&quality=50", 160, 120);
+    }
+
+    @Test(timeout = 10_000)
+    public void clipRouteCanBeEnabledWithoutDroppingStreams() throws IOException, InterruptedException {
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.getOutputStream().write(
+                    "GET /video HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            assertEquals("HTTP/1.1 200 OK", readLine(in));
+            readHeaders(in);
+            readPart(in);
+            assertTrue(clipContentType().startsWith("text/plain"));
+
+            PreRollBuffer preRoll = new PreRollBuffer(variants, StreamVariant.DEFAULT, 1 << 20, 5);
+            preRoll.start();
+            server.setPreRoll(preRoll);
+            Thread.sleep(300);
+            assertEquals("video/x-msvideo", clipContentType());
+            readPart(in);
+            preRoll.stop();
+        }
+    }
+
+    /** Requests a one-second clip and returns the response's content type. */
+    private String clipContentType() throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            socket.getOutputStream().write(
+                    "GET /clip?seconds=1 HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            assertEquals("HTTP/1.1 200 OK", readLine(in));
+            return readHeaders(in).get("content-type");
+        }
+    }
+
+    private void assertStreams(String path, int width, int height) throws IOException {
+        try (Socket socket = new Socket("127.0.0.1", server.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET " + path + " HTTP/1.1\r\nHost: localhost\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+
+            assertEquals("HTTP/1.1 200 OK", readLine(in));
+            Map<String, String> headers = readHeaders(in);
+            assertEquals("multipart/x-mixed-replace; boundary=" + VideoHttpServer.BOUNDARY,
+                    headers.get("content-type"));
+
+            long lastSequence = 0;
+            for (int part = 0; part < 3; part++) {
+                Map<String, String> partHeaders = new HashMap<>();
+                byte[] jpeg = readPart(in, partHeaders);
+                assertEquals("image/jpeg", partHeaders.get("content-type"));
+                assertNotNull(partHeaders.get("x-timestamp"));
+                long sequence = Long.parseLong(partHeaders.get("x-frame-seq"));
+                assertTrue("sequence " + sequence + " after " + lastSequence, sequence > lastSequence);
+                lastSequence = sequence;
+
+                assertEquals((byte) 0xFF, jpeg[0]);
+                assertEquals((byte) 0xD8, jpeg[1]);
+                BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+                assertNotNull(image);
+                assertEquals(width, image.getWidth());
+                assertEquals(height, image.getHeight());
+            }
+        }
+    }
+
+    private static byte[] readPart(DataInputStream in) throws IOException {
+        return readPart(in, new HashMap<>());
+    }
+
+    /** Reads the next part's headers into {@code headers} and returns its body. */
+    private static byte[] readPart(DataInputStream in, Map<String, String> headers) throws IOException {
+        String line;
+        while ((line = readLine(in)).isEmpty()) {
+            // Blank line between the previous part and the boundary.
+        }
+        assertEquals("--" + VideoHttpServer.BOUNDARY, line);
+        headers.putAll(readHeaders(in));
+        byte[] body = new byte[Integer.parseInt(headers.get("content-length"))];
+        in.readFully(body);
+        return body;
+    }
+
+    private static Map<String, String> readHeaders(InputStream in) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            int colon = line.indexOf(':');
+            headers.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+        }
+        return headers;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                throw new IOException("Stream ended");
+            }
+            if (c != '\r') {
+                line.append((char) c);
+            }
+        }
+        return line.toString();
+    }
+}
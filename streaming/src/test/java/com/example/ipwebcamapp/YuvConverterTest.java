@@ -0,0 +1,257 @@
+package com.example.ipwebcamapp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/** Checks every copy path of {@link YuvConverter} against a per-pixel reference conversion. */
+public class YuvConverterTest {
+    private final Random random = new Random(42);
+
+    @Test
+    public void planar() {
+        assertConverts(Planes.planar(random, 16, 8, 16, 8));
+    }
+
+    @Test
+    public void planarWithPaddedRows() {
+        assertConverts(Planes.planar(random, 16, 8, 24, 12));
+    }
+
+    @Test
+    public void nv21() {
+        assertConverts(Planes.semiPlanar(random, 16, 8, 16, 16, true));
+    }
+
+    @Test
+    public void nv21WithPaddedRows() {
+        assertConverts(Planes.semiPlanar(random, 16, 8, 32, 32, true));
+    }
+
+    @Test
+    public void nv12() {
+        assertConverts(Planes.semiPlanar(random, 16, 8, 16, 16, false));
+    }
+
+    @Test
+    public void nv12WithPaddedRows() {
+        assertConverts(Planes.semiPlanar(random, 16, 8, 20, 20, false));
+    }
+
+    @Test
+    public void oddWidthAndOddStrides() {
+        assertConverts(Planes.planar(random, 7, 6, 9, 5));
+        assertConverts(Planes.semiPlanar(random, 7, 6, 11, 9, true));
+        assertConverts(Planes.semiPlanar(random, 7, 6, 11, 9, false));
+    }
+
+    @Test
+    public void directBuffers() {
+        assertConverts(Planes.semiPlanar(random, 16, 8, 32, 32, true).direct());
+        assertConverts(Planes.planar(random, 16, 8, 24, 12).direct());
+    }
+
+    @Test
+    public void greyNv21IsConvertedBeforeTheLayoutIsKnown() {
+        Planes planes = Planes.semiPlanar(random, 16, 8, 16, 16, true);
+        Arrays.fill(planes.chroma, (byte) 128);
+        assertEquals(YuvConverter.LAYOUT_UNKNOWN, YuvConverter.detectLayout(16, 8, planes.u, planes.v, 16, 2));
+        assertConverts(planes);
+    }
+
+    @Test
+    public void layoutIsDetected() {
+        Planes nv21 = Planes.semiPlanar(random, 16, 8, 16, 16, true);
+        Planes nv12 = Planes.semiPlanar(random, 16, 8, 16, 16, false);
+        Planes planar = Planes.planar(random, 16, 8, 16, 8);
+        assertEquals(YuvConverter.LAYOUT_INTERLEAVED, YuvConverter.detectLayout(16, 8, nv21.u, nv21.v, 16, 2));
+        assertEquals(YuvConverter.LAYOUT_PLANAR, YuvConverter.detectLayout(16, 8, nv12.u, nv12.v, 16, 2));
+        assertEquals(YuvConverter.LAYOUT_PLANAR, YuvConverter.detectLayout(16, 8, planar.u, planar.v, 8, 1));
+    }
+
+    @Test
+    public void cachedLayoutIsReusedForLaterFrames() {
+        YuvConverter converter = new YuvConverter();
+        for (int frame = 0; frame < 3; frame++) {
+            Planes planes = Planes.semiPlanar(random, 16, 8, 32, 32, true);
+            byte[] nv21 = converter.toNv21(planes.width, planes.height, planes.y, planes.yRowStride,
+                    planes.u, planes.v, planes.uvRowStride, planes.uvPixelStride);
+            assertArrayEquals(planes.reference(), nv21);
+            converter.release(nv21);
+        }
+    }
+
+    @Test
+    public void falseInterleavedDecisionIsCorrectedOnTheNextFrame() {
+        YuvConverter.Source source = new YuvConverter().newSource();
+        for (int frame = 0; frame < 3; frame++) {
+            // Separate planes that happen to look interleaved at the sampled positions.
+            Planes planes = Planes.strided(random, 16, 8, 16, 16);
+            int overlap = (8 / 2 - 1) * 16 + 16 - 2;
+            for (int i = 0; i < 16; i++) {
+                int index = i * (overlap - 1) / 15;
+                planes.v.put(1 + index, planes.u.get(index));
+            }
+            assertEquals(YuvConverter.LAYOUT_INTERLEAVED,
+                    YuvConverter.detectLayout(16, 8, planes.u, planes.v, 16, 2));
+            byte[] nv21 = source.toNv21(planes.width, planes.height, planes.y, planes.yRowStride,
+                    planes.u, planes.v, planes.uvRowStride, planes.uvPixelStride);
+            if (frame > 0) {
+                assertArrayEquals(planes.reference(), nv21);
+                assertEquals(YuvConverter.LAYOUT_PLANAR, source.layout());
+            }
+        }
+    }
+
+    @Test
+    public void sourcesKeepTheirOwnLayout() {
+        YuvConverter converter = new YuvConverter();
+        YuvConverter.Source front = converter.newSource();
+        YuvConverter.Source rear = converter.newSource();
+        for (int frame = 0; frame < 3; frame++) {
+            Planes nv21 = Planes.semiPlanar(random, 16, 8, 16, 16, true);
+            Planes nv12 = Planes.semiPlanar(random, 32, 16, 32, 32, false);
+            assertArrayEquals(nv21.reference(), front.toNv21(nv21.width, nv21.height, nv21.y, nv21.yRowStride,
+                    nv21.u, nv21.v, nv21.uvRowStride, nv21.uvPixelStride));
+            assertArrayEquals(nv12.reference(), rear.toNv21(nv12.width, nv12.height, nv12.y, nv12.yRowStride,
+                    nv12.u, nv12.v, nv12.uvRowStride, nv12.uvPixelStride));
+            assertEquals(YuvConverter.LAYOUT_INTERLEAVED, front.layout());
+            assertEquals(YuvConverter.LAYOUT_PLANAR, rear.layout());
+        }
+    }
+
+    private static void assertConverts(Planes planes) {
+        int yPosition = planes.y.position();
+        int uPosition = planes.u.position();
+        int vPosition = planes.v.position();
+        byte[] nv21 = new YuvConverter().toNv21(planes.width, planes.height, planes.y, planes.yRowStride,
+                planes.u, planes.v, planes.uvRowStride, planes.uvPixelStride);
+        assertArrayEquals(planes.reference(), nv21);
+        assertEquals(yPosition, planes.y.position());
+        assertEquals(uPosition, planes.u.position());
+        assertEquals(vPosition, planes.v.position());
+
+        byte[] out = new byte[YuvConverter.nv21Size(planes.width, planes.height)];
+        YuvConverter.convert(planes.width, planes.height, planes.y, planes.yRowStride,
+                planes.u, planes.v, planes.uvRowStride, planes.uvPixelStride, out);
+        assertArrayEquals(planes.reference(), out);
+    }
+
+    /** {@code YUV_420_888} planes laid out the way camera HALs deliver them. */
+    private static final class Planes {
+        final int width;
+        final int height;
+        final int yRowStride;
+        final int uvRowStride;
+        final int uvPixelStride;
+        final byte[] luma;
+        final byte[] chroma;
+        ByteBuffer y;
+        ByteBuffer u;
+        ByteBuffer v;
+
+        private Planes(int width, int height, int yRowStride, int uvRowStride, int uvPixelStride,
+                       byte[] luma, byte[] chroma) {
+            this.width = width;
+            this.height = height;
+            this.yRowStride = yRowStride;
+            this.uvRowStride = uvRowStride;
+            this.uvPixelStride = uvPixelStride;
+            this.luma = luma;
+            this.chroma = chroma;
+        }
+
+        private static byte[] luma(Random random, int height, int rowStride) {
+            byte[] luma = new byte[height * rowStride];
+            random.nextBytes(luma);
+            return luma;
+        }
+
+        /** Separate U and V planes, one byte per sample. */
+        static Planes planar(Random random, int width, int height, int yRowStride, int uvRowStride) {
+            int planeSize = (height / 2) * uvRowStride;
+            byte[] chroma = new byte[2 * planeSize];
+            random.nextBytes(chroma);
+            Planes planes = new Planes(width, height, yRowStride, uvRowStride, 1,
+                    luma(random, height, yRowStride), chroma);
+            planes.y = ByteBuffer.wrap(planes.luma);
+            planes.u = slice(chroma, 0, planeSize);
+            planes.v = slice(chroma, planeSize, planeSize);
+            return planes;
+        }
+
+        /** Separate U and V planes, each with a second byte per sample. */
+        static Planes strided(Random random, int width, int height, int yRowStride, int uvRowStride) {
+            int planeSize = (height / 2 - 1) * uvRowStride + (width / 2) * 2 - 1;
+            byte[] chroma = new byte[2 * planeSize];
+            random.nextBytes(chroma);
+            Planes planes = new Planes(width, height, yRowStride, uvRowStride, 2,
+                    luma(random, height, yRowStride), chroma);
+            planes.y = ByteBuffer.wrap(planes.luma);
+            planes.u = slice(chroma, 0, planeSize);
+            planes.v = slice(chroma, planeSize, planeSize);
+            return planes;
+        }
+
+        /** One interleaved chroma plane; V first for NV21, U first for NV12. */
+        static Planes semiPlanar(Random random, int width, int height, int yRowStride, int uvRowStride,
+                                 boolean vFirst) {
+            int size = (height / 2 - 1) * uvRowStride + (width / 2) * 2;
+            byte[] chroma = new byte[size];
+            random.nextBytes(chroma);
+            Planes planes = new Planes(width, height, yRowStride, uvRowStride, 2,
+                    luma(random, height, yRowStride), chroma);
+            planes.y = ByteBuffer.wrap(planes.luma);
+            planes.u = slice(chroma, vFirst ? 1 : 0, size - 1);
+            planes.v = slice(chroma, vFirst ? 0 : 1, size - 1);
+            return planes;
+        }
+
+        /** The same planes over direct memory, as an {@code ImageReader} hands them out. */
+        Planes direct() {
+            ByteBuffer lumaBuffer = ByteBuffer.allocateDirect(luma.length);
+            lumaBuffer.put(luma).flip();
+            ByteBuffer chromaBuffer = ByteBuffer.allocateDirect(chroma.length);
+            chromaBuffer.put(chroma).flip();
+            y = lumaBuffer;
+            u = directSlice(chromaBuffer, u);
+            v = directSlice(chromaBuffer, v);
+            return this;
+        }
+
+        private static ByteBuffer slice(byte[] data, int offset, int length) {
+            return ByteBuffer.wrap(data, offset, length).slice();
+        }
+
+        private static ByteBuffer directSlice(ByteBuffer memory, ByteBuffer heapView) {
+            ByteBuffer view = memory.duplicate();
+            view.position(heapView.arrayOffset());
+            view.limit(heapView.arrayOffset() + heapView.remaining());
+            return view.slice();
+        }
+
+        /** NV21 built one sample at a time with absolute reads. */
+        byte[] reference() {
+            byte[] out = new byte[YuvConverter.nv21Size(width, height)];
+            int pos = 0;
+            for (int row = 0; row < height; row++) {
+                for (int col = 0; col < width; col++) {
+                    out[pos++] = y.get(y.position() + row * yRowStride + col);
+                }
+            }
+            for (int row = 0; row < height / 2; row++) {
+                for (int col = 0; col < width / 2; col++) {
+                    int index = row * uvRowStride + col * uvPixelStride;
+                    out[pos++] = v.get(v.position() + index);
+                    out[pos++] = u.get(u.position() + index);
+                }
+            }
+            return out;
+        }
+    }
+}